@@ -0,0 +1,98 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.Shape;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Offscreen image of the committed whiteboard.
+ * Shapes are drawn into the image once as they arrive, so a repaint is a
+ * single image copy however many shapes the board holds. The image is only
+ * redrawn from scratch after invalidate(). Growing the panel only redraws
+ * shapes in the newly exposed area; shrinking it redraws nothing.
+ */
+class BoardRaster {
+    private BufferedImage image = null;
+    // Number of shapes from the start of the list already in the image
+    private int rasterised = 0;
+
+    /**
+     * Forces a full redraw, eg after the board is cleared or replaced.
+     */
+    void invalidate() {
+        rasterised = 0;
+        image = null;
+    }
+
+    /**
+     * Brings the image up to date with the shape list.
+     * @param shapes committed shapes; only ever appended to between invalidations
+     * @param index spatial index of shapes
+     * @param width panel width
+     * @param height panel height
+     * @param font panel font, used for text
+     * @return up to date image, at least as large as the panel, or null if
+     *         the panel has no area
+     */
+    BufferedImage update(List<Shape> shapes, SpatialGrid index, int width, int height, Font font) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (image == null) {
+            // Transparent, so the panel background shows through
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            rasterised = 0;
+        } else if (width > image.getWidth() || height > image.getHeight()) {
+            grow(shapes, index, width, height, font);
+        }
+        if (rasterised < shapes.size()) {
+            Graphics2D g = image.createGraphics();
+            g.setFont(font);
+            try {
+                for (int i = rasterised; i < shapes.size(); i++) {
+                    ShapePainter.paint(g, shapes.get(i));
+                }
+            } finally {
+                g.dispose();
+            }
+            rasterised = shapes.size();
+        }
+        return image;
+    }
+
+    /**
+     * Enlarges the image, keeping what is already drawn and drawing only
+     * shapes that reach into the new area.
+     */
+    private void grow(List<Shape> shapes, SpatialGrid index, int width, int height, Font font) {
+        BufferedImage old = image;
+        int oldWidth = old.getWidth();
+        int oldHeight = old.getHeight();
+        image = new BufferedImage(Math.max(width, oldWidth), Math.max(height, oldHeight), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setFont(font);
+        try {
+            g.drawImage(old, 0, 0, null);
+            Rectangle right = new Rectangle(oldWidth, 0, image.getWidth() - oldWidth, image.getHeight());
+            Rectangle below = new Rectangle(0, oldHeight, oldWidth, image.getHeight() - oldHeight);
+            for (Rectangle exposed : new Rectangle[] {right, below}) {
+                if (exposed.isEmpty()) {
+                    continue;
+                }
+                g.setClip(exposed);
+                for (int i : index.query(exposed)) {
+                    if (i >= rasterised) {
+                        break;
+                    }
+                    ShapePainter.paint(g, shapes.get(i));
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+}
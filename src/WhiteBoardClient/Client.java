@@ -4,6 +4,8 @@ package WhiteBoardClient;
 
 import remote.IClientCallback;
 import remote.IRemoteWhiteBoard;
+import remote.IWhiteBoardLobby;
+import remote.TunedSocketFactory;
 
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -12,7 +14,7 @@ import java.rmi.server.UnicastRemoteObject;
 
 /**
  * The main class for the WhiteBoardClient package.
- * Takes server ip, port number, and username as inputs.
+ * Takes server ip, port number, username and optionally a room as inputs.
  * Starts up the GUI if connection is successful.
  */
 
@@ -22,8 +24,8 @@ public class Client extends UnicastRemoteObject {
 
     public static void main(String[] args) {
 
-        if (args.length != 3) {
-            System.err.println("Please enter two arguments (Server IP, Server port number, username)");
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("Please enter three or four arguments (Server IP, Server port number, username, room)");
             System.exit(0);
         }
 
@@ -35,16 +37,40 @@ public class Client extends UnicastRemoteObject {
             System.exit(0);
         }
 
-        try {
+        // Whiteboard to join; clients naming the same room share it
+        String room = args.length == 4 ? args[3] : IWhiteBoardLobby.DEFAULT_ROOM;
 
-            // Connect to RMI registry
-            Registry registry = LocateRegistry.getRegistry(args[0], port);
-            IRemoteWhiteBoard remoteWhiteBoard = (IRemoteWhiteBoard) registry.lookup("WhiteBoardServer");
+        try {
 
-            ClientGUI client = new ClientGUI(remoteWhiteBoard);
-            IClientCallback clientCallbackServant = new ClientCallbackServant(args[2], client);
+            // Connect over RMI, or to the server's NIO port with -Dwhiteboard.transport=nio
+            boolean nio = "nio".equals(System.getProperty("whiteboard.transport"));
+            IRemoteWhiteBoard remoteWhiteBoard;
+            if (nio) {
+                remoteWhiteBoard = NioServerProxy.connect(args[0], port, room);
+            } else {
+                Registry registry = LocateRegistry.getRegistry(args[0], port);
+                IWhiteBoardLobby lobby = (IWhiteBoardLobby) registry.lookup("WhiteBoardLobby");
+                remoteWhiteBoard = lobby.openRoom(room);
+            }
+
+            // Most repaints per second from server updates, eg -Dwhiteboard.fps=30
+            int fps = Integer.getInteger("whiteboard.fps", 60);
+            // Most milliseconds between sends of this client's cursor, eg -Dwhiteboard.presenceTick=100
+            int presenceTick = Integer.getInteger("whiteboard.presenceTick", 50);
+            // Poll for updates instead of being called back, eg -Dwhiteboard.mode=pull from behind NAT
+            boolean pull = "pull".equals(System.getProperty("whiteboard.mode", "push"));
+            // Sockets to be called back on, eg -Dwhiteboard.transport=compressed; the server picks its own
+            TunedSocketFactory socketFactory = TunedSocketFactory.fromSystemProperties();
+
+            ClientGUI client = new ClientGUI(remoteWhiteBoard, presenceTick);
+            UpdatePipeline updates = new UpdatePipeline(client, fps);
+            IClientCallback clientCallbackServant = new ClientCallbackServant(args[2], client, updates, socketFactory);
+            if (nio) {
+                // Callbacks arrive over the NIO connection, so no RMI server is needed
+                UnicastRemoteObject.unexportObject(clientCallbackServant, true);
+            }
             System.out.println("Connecting to server ...");
-            client.setServant(clientCallbackServant);
+            client.setServant(clientCallbackServant, pull);
 
             client.pack();
             client.setVisible(true);
@@ -2,8 +2,12 @@
 
 package WhiteBoardClient;
 
+import remote.BoardOp;
 import remote.IClientCallback;
-import remote.IShape;
+import remote.JoinInfo;
+import remote.JoinRequest;
+import remote.Presence;
+import remote.TunedSocketFactory;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
@@ -12,15 +16,28 @@ import java.util.Objects;
 
 /**
  * Client interface with RMI server.
- * Passes messages through to the GUI.
+ * Passes messages through to the GUI. Board, chat and peer list updates go
+ * through an UpdatePipeline so the GUI only changes on the EDT, as does
+ * peers' presence.
  */
 public class ClientCallbackServant extends UnicastRemoteObject implements IClientCallback {
     private ClientGUI clientGUI;
+    private UpdatePipeline updates;
     private Integer id = null;
     private String username;
 
-    protected ClientCallbackServant(String username, ClientGUI clientGUI) throws RemoteException {
+    /**
+     * @param username client's username, without identifier
+     * @param clientGUI GUI to pass messages to
+     * @param updates pipeline for board, chat and peer list updates
+     * @param socketFactory sockets to be called back on, or null for RMI's own
+     * @throws RemoteException if the object cannot be exported
+     */
+    protected ClientCallbackServant(String username, ClientGUI clientGUI, UpdatePipeline updates,
+                                    TunedSocketFactory socketFactory) throws RemoteException {
+        super(0, socketFactory, socketFactory);
         this.clientGUI = clientGUI;
+        this.updates = updates;
         this.username = username;
     }
 
@@ -40,20 +57,32 @@ public class ClientCallbackServant extends UnicastRemoteObject implements IClien
         return id;
     }
 
-    public void updateWhiteBoard(ArrayList<IShape> shapeList) throws RemoteException {
-        clientGUI.updateWhiteBoard(shapeList);
+    public void updateWhiteBoard(byte[] encodedShapes, long version, boolean first, boolean last) throws RemoteException {
+        updates.enqueueSnapshot(encodedShapes, version, first, last);
     }
 
-    public void updateMessageBoard(ArrayList<String> messageList) throws RemoteException {
-        clientGUI.updateMessageBoard(messageList);
+    public void applyOps(ArrayList<BoardOp> ops) throws RemoteException {
+        updates.enqueueOps(ops);
+    }
+
+    public void updateMessageBoard(ArrayList<String> messageList, long firstIndex) throws RemoteException {
+        updates.enqueueMessages(messageList, firstIndex);
     }
 
     public void updatePeerList(ArrayList<String> peerList) throws RemoteException {
-        clientGUI.updatePeerList(peerList);
+        updates.enqueuePeerList(peerList);
+    }
+
+    public void updatePresence(ArrayList<Presence> presences) throws RemoteException {
+        updates.enqueuePresence(presences);
     }
 
-    public boolean notifyNewPeer(IClientCallback c) throws RemoteException {
-        return clientGUI.notifyNewPeer(c);
+    public void updateJoinRequests(ArrayList<JoinRequest> requests) throws RemoteException {
+        clientGUI.updateJoinRequests(requests);
+    }
+
+    public void notifyJoined(JoinInfo info) throws RemoteException {
+        clientGUI.joined(info);
     }
 
     public void notifyFailure() throws RemoteException {
@@ -68,6 +97,10 @@ public class ClientCallbackServant extends UnicastRemoteObject implements IClien
         clientGUI.notifyKill();
     }
 
+    public void heartbeat() {
+        // Answering at all is the point
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
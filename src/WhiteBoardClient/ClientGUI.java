@@ -2,27 +2,66 @@
 
 package WhiteBoardClient;
 
+import remote.BoardCodec;
+import remote.BoardOp;
 import remote.IClientCallback;
 import remote.IRemoteWhiteBoard;
 import remote.IShape;
+import remote.JoinInfo;
+import remote.JoinRequest;
+import remote.OperationRejectedException;
+import remote.Presence;
+import remote.RateLimitedException;
+import remote.Shape;
 
 import javax.swing.*;
 import javax.swing.border.Border;
 import javax.swing.filechooser.FileFilter;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Client GUI. Also holds client logic.
  */
 public class ClientGUI extends JFrame {
+    // Chat lines kept in the chat box while following new messages
+    private static final int MAX_CHAT_LINES = 500;
+    // Older chat lines loaded at a time when scrolling back
+    private static final int CHAT_PAGE = 50;
+    // Shapes sent per call when uploading an opened board
+    private static final int UPLOAD_CHUNK = 4096;
+
     private JPanel contentPane;
     private IRemoteWhiteBoard remoteWhiteBoard;
     private IClientCallback clientCallbackServant;
-    private ArrayList<IShape> shapeList = new ArrayList<>();
+    private ArrayList<Shape> shapeList = new ArrayList<>();
+    // History index of the first chat line in the chat box
+    private long firstMessageIndex = 0;
+    private boolean loadingMessages = false;
+    private JScrollBar chatScrollBar;
+    private final BoardRaster boardRaster = new BoardRaster();
+    // Bounding boxes of shapeList, by position
+    private final SpatialGrid shapeIndex = new SpatialGrid();
+    // Last board version applied, -1 until the first snapshot arrives and while one is streaming
+    private long boardVersion = -1;
+    // Version of the snapshot being streamed in, or -1
+    private long loadingVersion = -1;
+    private boolean resyncPending = false;
+    // Set once a peer list arrives from the server, which supersedes the one from joining
+    private boolean peerListReceived = false;
+    // Admin only
+    private JoinRequestsDialog joinRequestsDialog = null;
+    // Board area changed by server updates since the last repaint, null for all of it
+    private Rectangle dirtyArea = new Rectangle(0, 0, -1, -1);
     private JPanel WhiteBoard;
     private JTextField textField;
     private JRadioButton lineRadioButton;
@@ -30,6 +69,7 @@ public class ClientGUI extends JFrame {
     private JRadioButton ovalRadioButton;
     private JRadioButton rectangleRadioButton;
     private JRadioButton textRadioButton;
+    private JRadioButton freehandRadioButton;
     private JButton colourButton;
     private JPanel chatPanel;
     private JTextPane chatBox;
@@ -37,23 +77,40 @@ public class ClientGUI extends JFrame {
     private JTextPane peerListPane;
     private int x1, y1, x2, y2;
     private IShape.ShapeType currentShape;
+    private final StrokeBatcher strokeBatcher;
+    // Shapes drawn here but not yet on shapeList
+    private final PendingShapes pendingShapes = new PendingShapes();
+    // Sends drawings in the order they were made, off the EDT
+    private final ExecutorService drawSender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "draw-sender");
+        t.setDaemon(true);
+        return t;
+    });
+    private int lastOpId = 0;
+    private final PresenceSender presenceSender;
+    // Peers' cursors and shapes in progress
+    private final PeerPresence peerPresence = new PeerPresence();
+    private volatile int joinedId = 0;
     private boolean mouseDown = false;
     private String fileName = null;
 
     /**
      * Generates GUI. Sets up intialised variables.
      * @param remoteWhiteBoard server interface object
+     * @param presenceTick most milliseconds between sends of the cursor
      * @throws ClassNotFoundException
      * @throws UnsupportedLookAndFeelException
      * @throws InstantiationException
      * @throws IllegalAccessException
      */
-    public ClientGUI(IRemoteWhiteBoard remoteWhiteBoard) throws ClassNotFoundException, UnsupportedLookAndFeelException, InstantiationException, IllegalAccessException {
+    public ClientGUI(IRemoteWhiteBoard remoteWhiteBoard, int presenceTick) throws ClassNotFoundException, UnsupportedLookAndFeelException, InstantiationException, IllegalAccessException {
         // Set-up
         setTitle("WhiteBoard");
         setContentPane(contentPane);
         this.remoteWhiteBoard = remoteWhiteBoard;
         this.currentShape = IShape.ShapeType.LINE;
+        this.strokeBatcher = new StrokeBatcher(this::submit);
+        this.presenceSender = new PresenceSender(remoteWhiteBoard, presenceTick);
         this.textField.setOpaque(false);
         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 
@@ -75,13 +132,28 @@ public class ClientGUI extends JFrame {
         });
 
         // Paint temporary shape while dragging mouse
+        // Peers see the cursor and temporary shape through presence
         WhiteBoard.addMouseMotionListener(new MouseMotionAdapter() {
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                super.mouseMoved(e);
+                updatePresence(e.getX(), e.getY(), true);
+            }
+
             @Override
             public void mouseDragged(MouseEvent e) {
                 super.mouseDragged(e);
+                updatePresence(e.getX(), e.getY(), true);
+                if (currentShape == IShape.ShapeType.FREEHAND) {
+                    WhiteBoard.repaint(strokeBatcher.add(e.getX(), e.getY()));
+                    return;
+                }
+                // Repaint where the temporary shape was and where it is now
+                Rectangle dirty = temporaryShapeBounds();
                 x2 = e.getX();
                 y2 = e.getY();
-                WhiteBoard.repaint();
+                dirty.add(temporaryShapeBounds());
+                WhiteBoard.repaint(dirty);
             }
         });
 
@@ -94,11 +166,9 @@ public class ClientGUI extends JFrame {
                 super.mousePressed(e);
                 x1 = e.getX();
                 y1 = e.getY();
-                try {
-                    confirmText();
-                } catch (RemoteException ex) {
-                    System.err.println("Lost connection to server.");
-                    System.exit(0);
+                confirmText();
+                if (currentShape == IShape.ShapeType.FREEHAND) {
+                    strokeBatcher.begin(x1, y1, colourButton.getBackground());
                 }
                 mouseDown = true;
             }
@@ -117,15 +187,21 @@ public class ClientGUI extends JFrame {
                     textField.setLocation(x2, y2);
                     textField.setForeground(colourButton.getBackground());
                     textField.requestFocusInWindow();
+                } else if (currentShape == IShape.ShapeType.FREEHAND) {
+                    strokeBatcher.end(x2, y2);
                 } else {
-                    try {
-                        remoteWhiteBoard.drawShape(x1, y1, x2, y2, colourButton.getBackground(), currentShape);
-                    } catch (RemoteException ex) {
-                        System.err.println("Lost connection to server.");
-                        System.exit(0);
-                    }
+                    submit(new Shape(x1, y1, x2 - x1, y2 - y1, colourButton.getBackground(), currentShape));
                 }
                 mouseDown = false;
+                updatePresence(x2, y2, true);
+                WhiteBoard.repaint(temporaryShapeBounds());
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                super.mouseExited(e);
+                // Still dragging, so the shape may yet be finished back on the board
+                updatePresence(e.getX(), e.getY(), mouseDown);
             }
         });
 
@@ -135,18 +211,14 @@ public class ClientGUI extends JFrame {
         ovalRadioButton.addActionListener(e -> currentShape = IShape.ShapeType.OVAL);
         rectangleRadioButton.addActionListener(e -> currentShape = IShape.ShapeType.RECTANGLE);
         textRadioButton.addActionListener(e -> currentShape = IShape.ShapeType.TEXT);
+        freehandRadioButton.addActionListener(e -> currentShape = IShape.ShapeType.FREEHAND);
 
         // Finalise text if focus is lost
         textField.addFocusListener(new FocusAdapter() {
             @Override
             public void focusLost(FocusEvent e) {
                 super.focusLost(e);
-                try {
-                    confirmText();
-                } catch (RemoteException ex) {
-                    System.err.println("Lost connection to server.");
-                    System.exit(0);
-                }
+                confirmText();
             }
         });
 
@@ -175,6 +247,10 @@ public class ClientGUI extends JFrame {
                         } else {
                             remoteWhiteBoard.sendMessage(clientCallbackServant.getFullUsername()+ ": " + messageBox.getText(), clientCallbackServant);
                         }
+                    } catch (RateLimitedException ex) {
+                        // Keep the message, so it can be sent again in a moment
+                        Toolkit.getDefaultToolkit().beep();
+                        return;
                     } catch (RemoteException ex) {
                         System.err.println("Lost connection to server.");
                         System.exit(0);
@@ -184,6 +260,14 @@ public class ClientGUI extends JFrame {
 
             }
         });
+
+        // Load older chat when scrolled to the top
+        chatScrollBar = ((JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, chatBox)).getVerticalScrollBar();
+        chatScrollBar.addAdjustmentListener(e -> {
+            if (e.getValue() == 0 && !e.getValueIsAdjusting() && firstMessageIndex > 0 && !loadingMessages) {
+                loadOlderMessages();
+            }
+        });
     }
 
     /**
@@ -204,8 +288,39 @@ public class ClientGUI extends JFrame {
         fileButton.add(saveButton);
         fileButton.add(saveAsButton);
         fileButton.add(closeButton);
+        JMenu peersButton = new JMenu("Peers");
+        menuBar.add(peersButton);
+        JMenuItem joinRequestsButton = new JMenuItem("Join requests");
+        JCheckBoxMenuItem autoApproveButton = new JCheckBoxMenuItem("Auto-approve joins");
+        peersButton.add(joinRequestsButton);
+        peersButton.add(autoApproveButton);
         this.setJMenuBar(menuBar);
 
+        // Join requests are answered off the EDT; the server replies with the updated list
+        joinRequestsDialog = new JoinRequestsDialog(this, (ids, approve) -> new Thread(() -> {
+            try {
+                remoteWhiteBoard.answerJoinRequests(clientCallbackServant, ids, approve);
+            } catch (RemoteException ex) {
+                System.err.println("Lost connection to server.");
+                System.exit(0);
+            }
+        }).start());
+
+        joinRequestsButton.addActionListener(e -> joinRequestsDialog.setVisible(true));
+
+        // Auto-approve lets everyone waiting in too
+        autoApproveButton.addActionListener(e -> {
+            boolean autoApprove = autoApproveButton.isSelected();
+            new Thread(() -> {
+                try {
+                    remoteWhiteBoard.setAutoApprove(clientCallbackServant, autoApprove);
+                } catch (RemoteException ex) {
+                    System.err.println("Lost connection to server.");
+                    System.exit(0);
+                }
+            }).start();
+        });
+
         // New button clears whiteboard
         newButton.addActionListener(e -> {
             try {
@@ -221,10 +336,7 @@ public class ClientGUI extends JFrame {
             if (fileName != null) {
                 try {
                     // Opening without append will overwrite - intended
-                    File file = new File(fileName);
-                    FileOutputStream fileOut = new FileOutputStream(file);
-                    ObjectOutputStream stream = new ObjectOutputStream(fileOut);
-                    stream.writeObject(shapeList);
+                    BoardCodec.write(new File(fileName), shapeList);
                 } catch (IOException ex) {
                     System.err.println("File IO error");
                     System.exit(0);
@@ -267,9 +379,7 @@ public class ClientGUI extends JFrame {
                 fileName = fname;
 
                 try {
-                    FileOutputStream fileOut = new FileOutputStream(file);
-                    ObjectOutputStream stream = new ObjectOutputStream(fileOut);
-                    stream.writeObject(shapeList);
+                    BoardCodec.write(file, shapeList);
                 } catch (IOException ex) {
                     System.err.println("File IO error");
                     System.exit(0);
@@ -304,10 +414,22 @@ public class ClientGUI extends JFrame {
                 File file = fileChooser.getSelectedFile();
                 fileName = file.getAbsolutePath();
                 try {
-                    FileInputStream fileIn = new FileInputStream(file);
-                    ObjectInputStream stream = new ObjectInputStream(fileIn);
-                    shapeList = (ArrayList<IShape>) stream.readObject();
-                    remoteWhiteBoard.replaceAll(shapeList);
+                    BoardCodec.Reader reader;
+                    if (BoardCodec.isBoardFile(file)) {
+                        reader = BoardCodec.open(file);
+                    } else {
+                        // Saved before the binary format
+                        try (ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file))) {
+                            ArrayList<Shape> shapes = readShapeList((ArrayList<?>) stream.readObject());
+                            reader = new BoardCodec.Reader(new ByteArrayInputStream(BoardCodec.encode(shapes)));
+                        }
+                    }
+                    // Board is replaced locally when the server streams it back
+                    BoardCodec.Reader board = reader;
+                    new Thread(() -> uploadBoard(board), "board-upload").start();
+                } catch (RemoteException ex) {
+                    // Old saves hold shape stubs, which die with the server that made them
+                    System.err.println("Saved drawing belongs to a server session that is no longer running.");
                 } catch (IOException | ClassNotFoundException ex) {
                     System.err.println("File input error");
                     System.exit(0);
@@ -327,38 +449,112 @@ public class ClientGUI extends JFrame {
         });
     }
 
+    /**
+     * Sends a board to the server in chunks, which replaces the whiteboard
+     * once all have arrived. Runs off the EDT.
+     * @param reader saved board, closed once sent
+     */
+    private void uploadBoard(BoardCodec.Reader reader) {
+        long importId = -1;
+        try (BoardCodec.Reader board = reader) {
+            importId = remoteWhiteBoard.beginImport(clientCallbackServant);
+            ArrayList<Shape> chunk = new ArrayList<>(UPLOAD_CHUNK);
+            Shape s;
+            do {
+                s = board.next();
+                if (s != null) {
+                    chunk.add(s);
+                }
+                if (chunk.size() == UPLOAD_CHUNK || (s == null && !chunk.isEmpty())) {
+                    remoteWhiteBoard.appendImportChunk(clientCallbackServant, importId, BoardCodec.encode(chunk));
+                    chunk.clear();
+                }
+            } while (s != null);
+            remoteWhiteBoard.commitImport(clientCallbackServant, importId);
+        } catch (RemoteException ex) {
+            System.err.println("Lost connection to server.");
+            System.exit(0);
+        } catch (IOException | IllegalArgumentException | IllegalStateException ex) {
+            System.err.println("Could not open drawing: " + ex.getMessage());
+            try {
+                remoteWhiteBoard.abortImport(clientCallbackServant, importId);
+            } catch (RemoteException ignored) {} // Server drops it on the next upload anyway
+        }
+    }
+
+    /**
+     * Converts a saved shape list into local shape values.
+     * Old .wbs files hold remote shape stubs, which are copied by value here.
+     * @param saved list read from a .wbs file
+     * @return list of local shapes
+     * @throws RemoteException if an old stub's server is no longer reachable
+     */
+    private ArrayList<Shape> readShapeList(ArrayList<?> saved) throws RemoteException {
+        ArrayList<Shape> shapes = new ArrayList<>(saved.size());
+        for (Object o : saved) {
+            shapes.add(Shape.copyOf((IShape) o));
+        }
+        return shapes;
+    }
+
     /**
      * Link server callback client object. Connect to server and
      * get whiteboard information
      * @param s callback client object
+     * @param pull whether to poll for updates rather than be called back
      * @throws RemoteException
      */
-    public void setServant(IClientCallback s) throws RemoteException {
+    public void setServant(IClientCallback s, boolean pull) throws RemoteException {
         this.clientCallbackServant = s;
-        remoteWhiteBoard.register(clientCallbackServant);
-        System.out.println("Connected as: " + clientCallbackServant.getUsername() + "#" + clientCallbackServant.getId());
-        if (clientCallbackServant.getId() == 0) {
-            initialiseAdminGUI();
+        // Board streams in through callbacks, or polls, while this returns
+        JoinInfo info = remoteWhiteBoard.join(clientCallbackServant, clientCallbackServant.getUsername(), pull);
+        if (pull) {
+            new UpdatePoller(remoteWhiteBoard, clientCallbackServant, this).start(info != null);
+        }
+        if (info == null) {
+            // Server calls joined() or notifyFailure() once the admin answers
+            System.out.println("Waiting for the admin to let you in ...");
+            return;
         }
-        remoteWhiteBoard.getShapeList(clientCallbackServant);
-        WhiteBoard.repaint();
-        remoteWhiteBoard.getMessageList(clientCallbackServant);
-        remoteWhiteBoard.getPeerList(clientCallbackServant);
+        joined(info);
     }
 
     /**
-     * Admin only. Notifies admin of new user joining and asks for confirmation.
-     * @param c callback client object of new user
-     * @return
+     * Sets up the client once the server has let it in.
+     * @param info join information from the server
      * @throws RemoteException
      */
-    public boolean notifyNewPeer(IClientCallback c) throws RemoteException {
-        int option = JOptionPane.showConfirmDialog(ClientGUI.this, c.getUsername() + " would like to connect. Allow?", "New peer", JOptionPane.YES_NO_OPTION);
-        return option == JOptionPane.YES_OPTION;
+    public void joined(JoinInfo info) throws RemoteException {
+        clientCallbackServant.setId(info.getId());
+        joinedId = info.getId();
+        System.out.println("Connected as: " + clientCallbackServant.getUsername() + "#" + info.getId());
+        if (info.isAdmin()) {
+            initialiseAdminGUI();
+        }
+        presenceSender.start(clientCallbackServant);
+        SwingUtilities.invokeLater(() -> {
+            joinMessageBoard(info.getChatTail(), info.getChatFirstIndex());
+            if (!peerListReceived) {
+                updatePeerList(info.getPeerList());
+            }
+        });
+    }
+
+    /**
+     * Admin only. Shows the clients waiting to join, without blocking.
+     * @param requests clients waiting, in the order they joined
+     */
+    public void updateJoinRequests(ArrayList<JoinRequest> requests) {
+        SwingUtilities.invokeLater(() -> {
+            if (joinRequestsDialog != null) {
+                joinRequestsDialog.update(requests);
+            }
+        });
     }
 
     /**
-     * Non-admin only. Notifies admin has decided not to allow user in.
+     * Non-admin only. Notifies admin has decided not to allow user in, or
+     * did not answer in time.
      * Shuts down client.
      * @throws RemoteException
      */
@@ -406,12 +602,11 @@ public class ClientGUI extends JFrame {
     /**
      * Finalises text and sends to server.
      * Hides text field.
-     * @throws RemoteException
      */
-    private void confirmText() throws RemoteException {
+    private void confirmText() {
         if (!textField.getText().equals("")) {
             // JTextField and g.drawText use different co-ord systems
-            remoteWhiteBoard.drawText(x2, y2+15, colourButton.getBackground(), textField.getText());
+            submit(new Shape(x2, y2+15, colourButton.getBackground(), textField.getText()));
             textField.setVisible(false);
             textField.setEditable(false);
             textField.setEnabled(false);
@@ -420,90 +615,401 @@ public class ClientGUI extends JFrame {
         }
     }
 
+    /**
+     * Shows a shape straight away and sends it to the server, which adds it
+     * to everyone's board. The shape stays pending, drawn over the board,
+     * until it comes back from the server; if the server refuses it, it is
+     * taken back. EDT only.
+     * @param s shape drawn by the user
+     */
+    private void submit(Shape s) {
+        // Op ids only need to differ from this client's others and other clients'
+        long opId = ((long) joinedId << 32) | ++lastOpId;
+        pendingShapes.add(opId, s);
+        WhiteBoard.repaint(ShapePainter.bounds(s, WhiteBoard.getFontMetrics(WhiteBoard.getFont())));
+        drawSender.execute(() -> {
+            try {
+                long version = sendPaced(opId, s);
+                SwingUtilities.invokeLater(() -> {
+                    pendingShapes.acknowledged(opId, version);
+                    settlePending();
+                });
+            } catch (OperationRejectedException e) {
+                System.err.println("Server refused drawing: " + e.getMessage());
+                SwingUtilities.invokeLater(() -> {
+                    Shape refused = pendingShapes.remove(opId);
+                    if (refused != null) {
+                        WhiteBoard.repaint(ShapePainter.bounds(refused, WhiteBoard.getFontMetrics(WhiteBoard.getFont())));
+                    }
+                });
+            } catch (RemoteException e) {
+                System.err.println("Lost connection to server.");
+                System.exit(0);
+            }
+        });
+    }
+
+    /**
+     * Sends a shape, waiting and trying again while the server says this
+     * client is drawing too fast. Later drawings wait behind it, so they
+     * still reach the server in order. Draw sender only.
+     * @param opId id to send the shape with
+     * @param s shape
+     * @return board version the server added the shape at
+     * @throws OperationRejectedException if the server refused the shape
+     * @throws RemoteException
+     */
+    private long sendPaced(long opId, Shape s) throws RemoteException, OperationRejectedException {
+        while (true) {
+            try {
+                return send(opId, s);
+            } catch (RateLimitedException e) {
+                try {
+                    Thread.sleep(e.getRetryAfterMillis());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param opId id to send the shape with
+     * @param s shape
+     * @return board version the server added the shape at
+     * @throws OperationRejectedException if the server refused the shape
+     * @throws RemoteException
+     */
+    private long send(long opId, Shape s) throws RemoteException, OperationRejectedException {
+        Color colour = s.getColour();
+        switch (s.getShape()) {
+            case TEXT:
+                return remoteWhiteBoard.drawText(clientCallbackServant, opId, s.getX(), s.getY(), colour, s.getText());
+            case FREEHAND:
+                return remoteWhiteBoard.drawStroke(clientCallbackServant, opId, s.getX(), s.getY(), colour, s.getPoints());
+            default:
+                return remoteWhiteBoard.drawShape(clientCallbackServant, opId, s.getX(), s.getY(),
+                        s.getX() + s.getWidth(), s.getY() + s.getHeight(), colour, s.getShape());
+        }
+    }
+
+    /**
+     * Drops pending shapes the board has reached the version of.
+     * EDT only.
+     */
+    private void settlePending() {
+        if (boardVersion < 0) {
+            return;
+        }
+        FontMetrics metrics = WhiteBoard.getFontMetrics(WhiteBoard.getFont());
+        for (Shape s : pendingShapes.settle(boardVersion)) {
+            WhiteBoard.repaint(ShapePainter.bounds(s, metrics));
+        }
+    }
+
+    /**
+     * Records where the cursor is and what is being dragged out, for peers
+     * to see. Sent at the next presence tick. EDT only.
+     * @param x cursor x coord
+     * @param y cursor y coord
+     * @param onBoard whether the cursor is over the board
+     */
+    private void updatePresence(int x, int y, boolean onBoard) {
+        IShape.ShapeType dragging = mouseDown && currentShape != IShape.ShapeType.TEXT
+                && currentShape != IShape.ShapeType.FREEHAND ? currentShape : null;
+        presenceSender.update(new Presence(null, onBoard, x, y, dragging, x1, y1,
+                colourButton.getBackground().getRGB()));
+    }
+
+    /**
+     * Shows peers' latest cursors and shapes in progress.
+     * EDT only, through UpdatePipeline, which repaints.
+     * @param presences latest presence of each peer that has changed
+     */
+    void updatePresence(Collection<Presence> presences) {
+        FontMetrics metrics = WhiteBoard.getFontMetrics(WhiteBoard.getFont());
+        for (Presence p : presences) {
+            Rectangle dirty = peerPresence.update(p, metrics);
+            if (dirtyArea != null) {
+                dirtyArea.add(dirty);
+            }
+        }
+    }
+
     /**
      * Draw shape when user is dragging
      * @param g graphics object
      */
     private void drawTemporaryShape(Graphics g) {
-        drawShape(g, x1, y1, x2, y2, colourButton.getBackground(), currentShape);
+        if (currentShape == IShape.ShapeType.FREEHAND) {
+            strokeBatcher.paint(g);
+            return;
+        }
+        ShapePainter.drawShape(g, x1, y1, x2, y2, colourButton.getBackground(), currentShape);
     }
 
     /**
-     * Translates internal mouse co-ordinates to g.draw method.
-     * Use only for shapes, not text.
-     * @param g graphics object
-     * @param x1 left coord
-     * @param y1 upper coord
-     * @param x2 right coord
-     * @param y2 bottom coord
-     * @param colour shape colour
-     * @param shape shape type
-     */
-    private void drawShape(Graphics g, int x1, int y1, int x2, int y2, Color colour, IShape.ShapeType shape) {
-        int xl = Math.min(x1, x2);
-        int xr = Math.max(x1, x2);
-        int yt = Math.min(y1, y2);
-        int yb = Math.max(y1, y2);
-        int width = xr - xl;
-        int height = yb - yt;
-        int radius = (int) Math.hypot(x2 - x1, y2 - y1);
-        g.setColor(colour);
-
-        switch(shape) {
-            case OVAL:
-                g.drawOval(xl, yt, width, height);
-                break;
-            case CIRCLE:
-                // First click is centre, drag to circumference
-                g.drawOval(x1-radius, y1-radius, radius*2, radius*2);
-                break;
-            case LINE:
-                g.drawLine(x1, y1, x2, y2);
-                break;
-            case RECTANGLE:
-                g.drawRect(xl, yt, width, height);
+     * Finds shapes drawn over a point, for selection tools. EDT only.
+     * @param x x coord
+     * @param y y coord
+     * @return shapes whose bounding box contains the point, in paint order
+     */
+    ArrayList<Shape> shapesAt(int x, int y) {
+        return shapeIndex.shapesAt(x, y, shapeList);
+    }
+
+    /**
+     * Finds shapes drawn over an area, for selection and erase tools. EDT only.
+     * @param area area to search
+     * @return shapes whose bounding box intersects the area, in paint order
+     */
+    ArrayList<Shape> shapesIn(Rectangle area) {
+        return shapeIndex.shapesIn(area, shapeList);
+    }
+
+    /**
+     * @return area covered by the shape being dragged
+     */
+    private Rectangle temporaryShapeBounds() {
+        if (currentShape == IShape.ShapeType.TEXT) {
+            return new Rectangle(x2, y2, 0, 0);
+        }
+        if (currentShape == IShape.ShapeType.FREEHAND) {
+            return strokeBatcher.bounds();
+        }
+        return ShapePainter.bounds(x1, y1, x2, y2, currentShape);
+    }
+
+
+    /**
+     * Adds a chunk of the server's whiteboard. The first chunk starts a new
+     * board, and shapes are shown as their chunks arrive. Operations are
+     * ignored until the last chunk. EDT only, through UpdatePipeline.
+     * @param encodedShapes chunk of the server's shapelist, compressed by BoardCodec
+     * @param version board version of the snapshot
+     * @param first whether this chunk starts the snapshot
+     * @param last whether this chunk ends the snapshot
+     */
+    public void updateWhiteBoard(byte[] encodedShapes, long version, boolean first, boolean last) {
+        if (first) {
+            shapeList = new ArrayList<>();
+            shapeIndex.clear();
+            boardRaster.invalidate();
+            boardVersion = -1;
+            loadingVersion = version;
+        } else if (version != loadingVersion) {
+            // Rest of a snapshot that was replaced by a newer one
+            return;
+        }
+        ArrayList<Shape> chunk;
+        try {
+            chunk = BoardCodec.decodeCompressed(encodedShapes);
+        } catch (IOException e) {
+            System.err.println("Received an invalid whiteboard from server.");
+            return;
+        }
+        FontMetrics metrics = WhiteBoard.getFontMetrics(WhiteBoard.getFont());
+        for (Shape s : chunk) {
+            shapeList.add(s);
+            shapeIndex.add(ShapePainter.bounds(s, metrics));
+        }
+        dirtyArea = null;
+        if (last) {
+            boardVersion = version;
+            loadingVersion = -1;
+            resyncPending = false;
+            settlePending();
+        }
+    }
+
+    /**
+     * Applies sequenced operations from the server in version order.
+     * Operations already seen are skipped. If one is missing, asks the server
+     * to resync from the last version applied.
+     * EDT only, through UpdatePipeline.
+     * @param ops operations from the server
+     */
+    public void applyOps(ArrayList<BoardOp> ops) {
+        if (boardVersion < 0) {
+            if (loadingVersion >= 0 && !ops.isEmpty() && ops.get(ops.size() - 1).getVersion() > loadingVersion) {
+                // Snapshot stream broke off, as its operations have started
+                requestResync();
+            }
+            // Otherwise snapshot not loaded yet, it will include these operations
+            return;
+        }
+        FontMetrics metrics = WhiteBoard.getFontMetrics(WhiteBoard.getFont());
+        for (BoardOp op : ops) {
+            if (op.getVersion() <= boardVersion) {
+                continue;
+            }
+            if (op.getVersion() != boardVersion + 1) {
+                requestResync();
                 break;
+            }
+            switch (op.getType()) {
+                case SHAPE:
+                    Rectangle bounds = ShapePainter.bounds(op.getShape(), metrics);
+                    if (op.getOpId() != 0) {
+                        // Our own shape, drawn in the same place
+                        pendingShapes.remove(op.getOpId());
+                    }
+                    shapeList.add(op.getShape());
+                    shapeIndex.add(bounds);
+                    if (dirtyArea != null) {
+                        dirtyArea.add(bounds);
+                    }
+                    break;
+                case CLEAR:
+                    shapeList = new ArrayList<>();
+                    shapeIndex.clear();
+                    boardRaster.invalidate();
+                    dirtyArea = null;
+                    break;
+                case REPLACE:
+                    // Server streams the new board instead
+                    requestResync();
+                    return;
+                case MESSAGE:
+                    appendMessage(op.getMessage());
+                    break;
+            }
+            boardVersion = op.getVersion();
         }
+        settlePending();
     }
 
     /**
-     * Saves text to whiteboard string.
-     * @param g graphics object
-     * @param x1 x coord
-     * @param y1 y coord
-     * @param colour text colour
-     * @param text string
+     * Repaints the board area changed by server updates since the last call.
+     * Called by UpdatePipeline once per frame.
      */
-    private void drawText(Graphics g, int x1, int y1, Color colour, String text) {
-        g.setColor(colour);
-        g.drawString(text, x1, y1);
+    void repaintDirty() {
+        if (dirtyArea == null) {
+            WhiteBoard.repaint();
+        } else if (!dirtyArea.isEmpty()) {
+            WhiteBoard.repaint(dirtyArea);
+        }
+        dirtyArea = new Rectangle(0, 0, -1, -1);
     }
 
     /**
-     * Updates whiteboard to new shapeList
-     * @param shapeList server's shapelist
+     * Asks the server for missed operations.
+     * Runs off the callback thread, as the server answers with another callback.
      */
-    public void updateWhiteBoard(ArrayList<IShape> shapeList) {
-        this.shapeList = shapeList;
-        WhiteBoard.repaint();
+    private void requestResync() {
+        if (resyncPending) {
+            return;
+        }
+        resyncPending = true;
+        long fromVersion = boardVersion;
+        new Thread(() -> {
+            try {
+                remoteWhiteBoard.resync(clientCallbackServant, fromVersion);
+            } catch (RemoteException ex) {
+                System.err.println("Lost connection to server.");
+                System.exit(0);
+            }
+            SwingUtilities.invokeLater(() -> resyncPending = false);
+        }).start();
     }
 
     /**
-     * Updates chatbox to new history
-     * @param messageList server's message history
+     * Updates chatbox to the latest chat. EDT only, through UpdatePipeline.
+     * @param messageList server's latest messages
+     * @param firstIndex history index of the first message
      */
-    public void updateMessageBoard(ArrayList<String> messageList) {
+    public void updateMessageBoard(ArrayList<String> messageList, long firstIndex) {
         chatBox.setText(String.join("\n", messageList));
+        firstMessageIndex = firstIndex;
         // Scroll down if needed
         chatBox.setCaretPosition(chatBox.getDocument().getLength());
     }
 
     /**
-     * Updates peer list
+     * Shows the chat tail from joining. Messages sent after it may already
+     * have been added, so it goes in front of them.
+     * @param messageList latest messages when joining
+     * @param firstIndex history index of the first message in messageList
+     */
+    private void joinMessageBoard(ArrayList<String> messageList, long firstIndex) {
+        Document doc = chatBox.getDocument();
+        try {
+            String text = String.join("\n", messageList);
+            doc.insertString(0, doc.getLength() == 0 || text.isEmpty() ? text : text + "\n", null);
+        } catch (BadLocationException ignored) {} // Inserting at the start
+        firstMessageIndex = firstIndex;
+        chatBox.setCaretPosition(doc.getLength());
+    }
+
+    /**
+     * Adds a new message to the end of the chatbox.
+     * Drops the oldest lines if the user is following the chat and the box
+     * is full; they are loaded again when scrolling back.
+     * @param message chat line
+     */
+    private void appendMessage(String message) {
+        Document doc = chatBox.getDocument();
+        boolean following = chatScrollBar.getValue() + chatScrollBar.getVisibleAmount() >= chatScrollBar.getMaximum();
+        try {
+            doc.insertString(doc.getLength(), doc.getLength() == 0 ? message : "\n" + message, null);
+            Element lines = doc.getDefaultRootElement();
+            if (following && lines.getElementCount() > MAX_CHAT_LINES) {
+                int dropped = lines.getElementCount() - MAX_CHAT_LINES;
+                doc.remove(0, lines.getElement(dropped - 1).getEndOffset());
+                firstMessageIndex += dropped;
+            }
+        } catch (BadLocationException ignored) {} // Offsets come from the document itself
+        if (following) {
+            chatBox.setCaretPosition(doc.getLength());
+        }
+    }
+
+    /**
+     * Fetches the chat page before the first line shown and puts it at the
+     * top of the chatbox, keeping the view where it was.
+     */
+    private void loadOlderMessages() {
+        loadingMessages = true;
+        long before = firstMessageIndex;
+        new Thread(() -> {
+            ArrayList<String> page;
+            try {
+                page = remoteWhiteBoard.getMessagePage(before, CHAT_PAGE);
+            } catch (RemoteException ex) {
+                System.err.println("Lost connection to server.");
+                System.exit(0);
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                // Chat was reset while loading
+                if (before == firstMessageIndex && !page.isEmpty()) {
+                    int oldMax = chatScrollBar.getMaximum();
+                    Document doc = chatBox.getDocument();
+                    try {
+                        String text = String.join("\n", page);
+                        doc.insertString(0, doc.getLength() == 0 ? text : text + "\n", null);
+                    } catch (BadLocationException ignored) {} // Inserting at the start
+                    firstMessageIndex -= page.size();
+                    chatBox.revalidate();
+                    SwingUtilities.invokeLater(() -> chatScrollBar.setValue(chatScrollBar.getValue() + chatScrollBar.getMaximum() - oldMax));
+                }
+                loadingMessages = false;
+            });
+        }).start();
+    }
+
+    /**
+     * Updates peer list. EDT only, through UpdatePipeline.
      * @param peerList server's peerlist
      */
     public void updatePeerList(ArrayList<String> peerList) {
+        peerListReceived = true;
         peerListPane.setText("Peer list: \n" + String.join("\n", peerList));
+        Rectangle gone = peerPresence.retain(peerList, WhiteBoard.getFontMetrics(WhiteBoard.getFont()));
+        if (!gone.isEmpty()) {
+            WhiteBoard.repaint(gone);
+        }
     }
 
     /**
@@ -515,18 +1021,14 @@ public class ClientGUI extends JFrame {
             public void paintComponent(Graphics g) {
                 super.paintComponent(g);
                 g.setColor(colourButton.getBackground());
-                for (IShape s : shapeList) {
-                    try {
-                        if (s.getShape() == IShape.ShapeType.TEXT) {
-                            drawText(g, s.getX(), s.getY(), s.getColour(), s.getText());
-                        } else {
-                            drawShape(g, s.getX(), s.getY(), s.getX() + s.getWidth(), s.getY() + s.getHeight(), s.getColour(), s.getShape());
-                        }
-                    } catch (RemoteException e) {
-                        System.err.println("Connection to server lost.");
-                        System.exit(0);
-                    }
+                // Only shapes added since the last repaint are drawn into the raster,
+                // and only the clip area of it is copied.
+                Image board = boardRaster.update(shapeList, shapeIndex, getWidth(), getHeight(), getFont());
+                if (board != null) {
+                    g.drawImage(board, 0, 0, null);
                 }
+                pendingShapes.paint(g);
+                peerPresence.paint(g);
                 if (currentShape != IShape.ShapeType.TEXT && mouseDown) {
                     drawTemporaryShape(g);
                 }
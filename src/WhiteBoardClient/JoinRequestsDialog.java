@@ -0,0 +1,99 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.JoinRequest;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admin only. Non-modal list of clients waiting to join, which can be let in
+ * or refused one at a time or in batches. Pops up without taking focus when
+ * someone is waiting and hides itself once no one is. EDT only.
+ */
+class JoinRequestsDialog extends JDialog {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Sends the admin's answer to the server.
+     */
+    interface Answer {
+        void answer(ArrayList<Long> requestIds, boolean approve);
+    }
+
+    private final DefaultListModel<JoinRequest> model = new DefaultListModel<>();
+    private final JList<JoinRequest> list = new JList<>(model);
+
+    /**
+     * @param owner admin's window
+     * @param answer called with the requests answered; must not block
+     */
+    JoinRequestsDialog(Frame owner, Answer answer) {
+        super(owner, "Join requests", false);
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+        setAutoRequestFocus(false);
+        list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+
+        JButton approveButton = new JButton("Allow");
+        JButton denyButton = new JButton("Deny");
+        JButton approveAllButton = new JButton("Allow all");
+        JButton denyAllButton = new JButton("Deny all");
+        approveButton.addActionListener(e -> answer.answer(ids(list.getSelectedValuesList()), true));
+        denyButton.addActionListener(e -> answer.answer(ids(list.getSelectedValuesList()), false));
+        approveAllButton.addActionListener(e -> answer.answer(ids(all()), true));
+        denyAllButton.addActionListener(e -> answer.answer(ids(all()), false));
+
+        JPanel buttons = new JPanel(new GridLayout(2, 2));
+        buttons.add(approveButton);
+        buttons.add(denyButton);
+        buttons.add(approveAllButton);
+        buttons.add(denyAllButton);
+
+        getContentPane().add(new JLabel("Waiting to connect:"), BorderLayout.NORTH);
+        getContentPane().add(new JScrollPane(list), BorderLayout.CENTER);
+        getContentPane().add(buttons, BorderLayout.SOUTH);
+        setSize(260, 300);
+        setLocationRelativeTo(owner);
+    }
+
+    /**
+     * Shows the clients now waiting, keeping the selection where possible.
+     * @param requests clients waiting, in the order they joined
+     */
+    void update(ArrayList<JoinRequest> requests) {
+        ArrayList<Long> selected = ids(list.getSelectedValuesList());
+        model.clear();
+        ArrayList<Integer> reselect = new ArrayList<>();
+        for (JoinRequest r : requests) {
+            if (selected.contains(r.getId())) {
+                reselect.add(model.size());
+            }
+            model.addElement(r);
+        }
+        list.setSelectedIndices(reselect.stream().mapToInt(Integer::intValue).toArray());
+        if (requests.isEmpty()) {
+            setVisible(false);
+        } else if (!isVisible()) {
+            setVisible(true);
+        }
+    }
+
+    private List<JoinRequest> all() {
+        ArrayList<JoinRequest> all = new ArrayList<>(model.size());
+        for (int i = 0; i < model.size(); i++) {
+            all.add(model.get(i));
+        }
+        return all;
+    }
+
+    private static ArrayList<Long> ids(List<JoinRequest> requests) {
+        ArrayList<Long> ids = new ArrayList<>(requests.size());
+        for (JoinRequest r : requests) {
+            ids.add(r.getId());
+        }
+        return ids;
+    }
+}
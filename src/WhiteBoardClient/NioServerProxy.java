@@ -0,0 +1,453 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.ClientUpdate;
+import remote.IClientCallback;
+import remote.IRemoteWhiteBoard;
+import remote.IShape;
+import remote.JoinInfo;
+import remote.OperationRejectedException;
+import remote.Presence;
+import remote.RateLimitedException;
+import remote.WireProtocol;
+
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of the NIO transport. Sends IRemoteWhiteBoard calls to the
+ * server over one connection and waits for their replies, and passes
+ * callbacks arriving on the same connection to the client's callback object.
+ * The server never connects to the client, so this works from behind NAT.
+ * The connection is to one room, named when the client joins.
+ * Callbacks run in order on their own thread, so one may call the server.
+ */
+class NioServerProxy implements IRemoteWhiteBoard {
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, CompletableFuture<WireProtocol.FrameReader>> pending = new ConcurrentHashMap<>();
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "nio-callbacks");
+        t.setDaemon(true);
+        return t;
+    });
+    private final String room;
+    private volatile IClientCallback client;
+    private volatile boolean closed = false;
+
+    private NioServerProxy(Socket socket, String room) throws IOException {
+        this.room = room;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+    }
+
+    /**
+     * Connects to a server's NIO port.
+     * @param host server address
+     * @param port server's NIO port
+     * @param room room to join
+     * @return connected proxy
+     * @throws IOException if the server cannot be reached
+     */
+    static NioServerProxy connect(String host, int port, String room) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        NioServerProxy proxy = new NioServerProxy(socket, room);
+        Thread reader = new Thread(proxy::read, "nio-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return proxy;
+    }
+
+    /**
+     * Reads frames until the connection closes: replies complete their
+     * calls, callbacks are queued to run in order.
+     */
+    private void read() {
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < WireProtocol.HEADER - 4 || length > WireProtocol.MAX_FRAME) {
+                    throw new IOException("Bad frame length: " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                WireProtocol.FrameReader reader = new WireProtocol.FrameReader(frame, length);
+                if (reader.opcode == WireProtocol.RESULT || reader.opcode == WireProtocol.ERROR) {
+                    CompletableFuture<WireProtocol.FrameReader> call = pending.remove(reader.requestId);
+                    if (call != null) {
+                        call.complete(reader);
+                    }
+                } else {
+                    callbacks.execute(() -> callback(reader));
+                }
+            }
+        } catch (IOException e) {
+            closed = true;
+            RemoteException lost = new RemoteException("Lost connection", e instanceof EOFException ? null : e);
+            for (CompletableFuture<WireProtocol.FrameReader> call : pending.values()) {
+                call.completeExceptionally(lost);
+            }
+            // After any callbacks already queued, eg notifyKill
+            callbacks.execute(() -> {
+                System.err.println("Lost connection to server.");
+                System.exit(0);
+            });
+        }
+    }
+
+    /**
+     * Makes a callback on the client's callback object.
+     * @param frame callback frame
+     */
+    private void callback(WireProtocol.FrameReader frame) {
+        IClientCallback c = client;
+        if (c == null) {
+            return;
+        }
+        try {
+            switch (frame.opcode) {
+                case WireProtocol.UPDATE_WHITEBOARD: {
+                    byte[] chunk = WireProtocol.readBytes(frame);
+                    long version = frame.readLong();
+                    boolean first = frame.readBoolean();
+                    c.updateWhiteBoard(chunk, version, first, frame.readBoolean());
+                    break;
+                }
+                case WireProtocol.APPLY_OPS:
+                    c.applyOps(WireProtocol.readOps(frame));
+                    break;
+                case WireProtocol.UPDATE_MESSAGE_BOARD: {
+                    ArrayList<String> messages = WireProtocol.readStrings(frame);
+                    c.updateMessageBoard(messages, frame.readLong());
+                    break;
+                }
+                case WireProtocol.UPDATE_PEER_LIST:
+                    c.updatePeerList(WireProtocol.readStrings(frame));
+                    break;
+                case WireProtocol.UPDATE_PRESENCE:
+                    c.updatePresence(WireProtocol.readPresences(frame));
+                    break;
+                case WireProtocol.UPDATE_JOIN_REQUESTS:
+                    c.updateJoinRequests(WireProtocol.readJoinRequests(frame));
+                    break;
+                case WireProtocol.NOTIFY_JOINED:
+                    c.notifyJoined(WireProtocol.readJoinInfo(frame));
+                    break;
+                case WireProtocol.NOTIFY_FAILURE:
+                    c.notifyFailure();
+                    break;
+                case WireProtocol.NOTIFY_KICK:
+                    c.notifyKick();
+                    break;
+                case WireProtocol.NOTIFY_KILL:
+                    c.notifyKill();
+                    break;
+                case WireProtocol.HEARTBEAT:
+                    c.heartbeat();
+                    break;
+                default:
+                    System.err.println("Unknown callback from server: " + frame.opcode);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read update from server: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a request and waits for its reply.
+     * @param request request frame
+     * @param requestId request id the frame was built with
+     * @return reply, positioned at the result
+     * @throws RemoteException if the connection is lost, or the server failed the call
+     */
+    private WireProtocol.FrameReader call(WireProtocol.FrameWriter request, int requestId) throws RemoteException {
+        CompletableFuture<WireProtocol.FrameReader> reply = new CompletableFuture<>();
+        pending.put(requestId, reply);
+        if (closed) {
+            pending.remove(requestId);
+            throw new RemoteException("Lost connection");
+        }
+        ByteBuffer frame = request.toFrame();
+        try {
+            synchronized (out) {
+                out.write(frame.array(), 0, frame.limit());
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            throw new RemoteException("Lost connection", e);
+        }
+        WireProtocol.FrameReader result;
+        try {
+            result = reply.get();
+        } catch (InterruptedException e) {
+            pending.remove(requestId);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw (RemoteException) e.getCause();
+        }
+        if (result.opcode == WireProtocol.ERROR) {
+            throw error(result);
+        }
+        return result;
+    }
+
+    /**
+     * @param reply ERROR reply
+     * @return exception of the kind the server threw
+     */
+    private static RuntimeException error(WireProtocol.FrameReader reply) throws RemoteException {
+        try {
+            byte kind = reply.readByte();
+            String message = WireProtocol.readString(reply);
+            switch (kind) {
+                case WireProtocol.SECURITY:
+                    return new SecurityException(message);
+                case WireProtocol.ILLEGAL_ARGUMENT:
+                    return new IllegalArgumentException(message);
+                case WireProtocol.ILLEGAL_STATE:
+                    return new IllegalStateException(message);
+                case WireProtocol.REJECTED:
+                    return new Rejected(message, -1);
+                case WireProtocol.RATE_LIMITED:
+                    return new Rejected(message, reply.readLong());
+                default:
+                    throw new RemoteException(message);
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Bad reply from server", e);
+        }
+    }
+
+    /**
+     * Stands for an OperationRejectedException until it is rethrown, as
+     * calls that cannot be rejected do not declare it.
+     */
+    private static final class Rejected extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        // Milliseconds to wait if rate limited, or -1
+        final long retryAfterMillis;
+
+        Rejected(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        OperationRejectedException toChecked() {
+            return retryAfterMillis < 0 ? new OperationRejectedException(getMessage())
+                    : new RateLimitedException(getMessage(), retryAfterMillis);
+        }
+    }
+
+    /**
+     * Runs a drawing request.
+     * @param opcode request
+     * @param args writes the request's arguments
+     * @return board version the server added the drawing at
+     * @throws OperationRejectedException if the server refused it
+     * @throws RemoteException
+     */
+    private long draw(byte opcode, Args args) throws RemoteException, OperationRejectedException {
+        WireProtocol.FrameReader reply;
+        try {
+            reply = call(opcode, args);
+        } catch (Rejected e) {
+            throw e.toChecked();
+        }
+        try {
+            return reply.readLong();
+        } catch (IOException e) {
+            throw new RemoteException("Bad reply from server", e);
+        }
+    }
+
+    /**
+     * Runs a request with no result.
+     * @param opcode request
+     * @param args writes the request's arguments
+     * @throws RemoteException
+     */
+    private void run(byte opcode, Args args) throws RemoteException {
+        call(opcode, args);
+    }
+
+    private WireProtocol.FrameReader call(byte opcode, Args args) throws RemoteException {
+        int requestId = nextRequestId.incrementAndGet();
+        WireProtocol.FrameWriter request = new WireProtocol.FrameWriter(opcode, requestId);
+        try {
+            args.write(request);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode request", e);
+        }
+        return call(request, requestId);
+    }
+
+    /**
+     * Writes a request's arguments.
+     */
+    private interface Args {
+        void write(WireProtocol.FrameWriter out) throws IOException;
+    }
+
+    private static final Args NONE = out -> {};
+
+    public JoinInfo join(IClientCallback client, String username, boolean pull) throws RemoteException {
+        // The server never connects back, so polling gains nothing here
+        this.client = client;
+        WireProtocol.FrameReader reply = call(WireProtocol.JOIN, out -> {
+            WireProtocol.writeString(out, room);
+            WireProtocol.writeString(out, username);
+        });
+        try {
+            return WireProtocol.readJoinInfo(reply);
+        } catch (IOException e) {
+            throw new RemoteException("Bad reply from server", e);
+        }
+    }
+
+    public ArrayList<ClientUpdate> getUpdatesSince(IClientCallback client, long version, long maxWaitMillis) throws RemoteException {
+        throw new RemoteException("Updates are pushed over the NIO transport");
+    }
+
+    public void answerJoinRequests(IClientCallback admin, ArrayList<Long> requestIds, boolean approve) throws RemoteException {
+        run(WireProtocol.ANSWER_JOIN_REQUESTS, out -> {
+            out.writeBoolean(approve);
+            WireProtocol.writeLongs(out, requestIds);
+        });
+    }
+
+    public void setAutoApprove(IClientCallback admin, boolean autoApprove) throws RemoteException {
+        run(WireProtocol.SET_AUTO_APPROVE, out -> out.writeBoolean(autoApprove));
+    }
+
+    public void unregister(IClientCallback client) throws RemoteException {
+        run(WireProtocol.UNREGISTER, NONE);
+    }
+
+    public long drawShape(IClientCallback client, long opId, int x1, int y1, int x2, int y2, Color colour,
+                          IShape.ShapeType shape) throws RemoteException, OperationRejectedException {
+        return draw(WireProtocol.DRAW_SHAPE, out -> {
+            out.writeLong(opId);
+            out.writeInt(x1);
+            out.writeInt(y1);
+            out.writeInt(x2);
+            out.writeInt(y2);
+            out.writeInt(colour.getRGB());
+            out.writeByte(shape.ordinal());
+        });
+    }
+
+    public long drawText(IClientCallback client, long opId, int x1, int y1, Color colour, String text)
+            throws RemoteException, OperationRejectedException {
+        return draw(WireProtocol.DRAW_TEXT, out -> {
+            out.writeLong(opId);
+            out.writeInt(x1);
+            out.writeInt(y1);
+            out.writeInt(colour.getRGB());
+            WireProtocol.writeString(out, text);
+        });
+    }
+
+    public long drawStroke(IClientCallback client, long opId, int x, int y, Color colour, byte[] points)
+            throws RemoteException, OperationRejectedException {
+        return draw(WireProtocol.DRAW_STROKE, out -> {
+            out.writeLong(opId);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(colour.getRGB());
+            WireProtocol.writeBytes(out, points);
+        });
+    }
+
+    public void getShapeList(IClientCallback client) throws RemoteException {
+        run(WireProtocol.GET_SHAPE_LIST, NONE);
+    }
+
+    public void resync(IClientCallback client, long fromVersion) throws RemoteException {
+        run(WireProtocol.RESYNC, out -> out.writeLong(fromVersion));
+    }
+
+    public void clearAll() throws RemoteException {
+        run(WireProtocol.CLEAR_ALL, NONE);
+    }
+
+    public long beginImport(IClientCallback admin) throws RemoteException {
+        try {
+            return call(WireProtocol.BEGIN_IMPORT, NONE).readLong();
+        } catch (IOException e) {
+            throw new RemoteException("Bad reply from server", e);
+        }
+    }
+
+    public void appendImportChunk(IClientCallback admin, long importId, byte[] encodedShapes) throws RemoteException {
+        run(WireProtocol.APPEND_IMPORT_CHUNK, out -> {
+            out.writeLong(importId);
+            WireProtocol.writeBytes(out, encodedShapes);
+        });
+    }
+
+    public void commitImport(IClientCallback admin, long importId) throws RemoteException {
+        run(WireProtocol.COMMIT_IMPORT, out -> out.writeLong(importId));
+    }
+
+    public void abortImport(IClientCallback admin, long importId) throws RemoteException {
+        run(WireProtocol.ABORT_IMPORT, out -> out.writeLong(importId));
+    }
+
+    public void sendMessage(String message, IClientCallback client) throws RemoteException, RateLimitedException {
+        try {
+            run(WireProtocol.SEND_MESSAGE, out -> WireProtocol.writeString(out, message));
+        } catch (Rejected e) {
+            // Only a rate limit refuses a message
+            throw new RateLimitedException(e.getMessage(), Math.max(0, e.retryAfterMillis));
+        }
+    }
+
+    public void getMessageList(IClientCallback client) throws RemoteException {
+        run(WireProtocol.GET_MESSAGE_LIST, NONE);
+    }
+
+    public ArrayList<String> getMessagePage(long beforeIndex, int count) throws RemoteException {
+        WireProtocol.FrameReader reply = call(WireProtocol.GET_MESSAGE_PAGE, out -> {
+            out.writeLong(beforeIndex);
+            out.writeInt(count);
+        });
+        try {
+            return WireProtocol.readStrings(reply);
+        } catch (IOException e) {
+            throw new RemoteException("Bad reply from server", e);
+        }
+    }
+
+    public void getPeerList(IClientCallback client) throws RemoteException {
+        run(WireProtocol.GET_PEER_LIST, NONE);
+    }
+
+    public void kickPeer(String clientName) throws RemoteException {
+        run(WireProtocol.KICK_PEER, out -> WireProtocol.writeString(out, clientName));
+    }
+
+    public void updatePresence(IClientCallback client, Presence presence) throws RemoteException {
+        run(WireProtocol.SEND_PRESENCE, out -> WireProtocol.writePresence(out, presence));
+    }
+}
@@ -0,0 +1,100 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.Presence;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Peers' cursors and the shapes they are dragging out, drawn over the board.
+ * Only the latest presence of each peer is kept. Presence from anyone not
+ * on the peer list, eg a peer that has just left, is ignored.
+ * EDT only.
+ */
+class PeerPresence {
+    // Half the width of a cursor marker
+    private static final int MARKER = 4;
+    private static final Color MARKER_COLOUR = Color.DARK_GRAY;
+
+    private final HashMap<String, Presence> byPeer = new HashMap<>();
+    private final HashSet<String> peers = new HashSet<>();
+
+    /**
+     * Records a peer's latest presence.
+     * @param p presence
+     * @param metrics metrics of the font names are drawn in
+     * @return area to repaint, covering the old and new presence
+     */
+    Rectangle update(Presence p, FontMetrics metrics) {
+        if (!peers.contains(p.getPeer())) {
+            return new Rectangle(0, 0, -1, -1);
+        }
+        Rectangle dirty = bounds(byPeer.remove(p.getPeer()), metrics);
+        if (p.isOnBoard()) {
+            byPeer.put(p.getPeer(), p);
+            dirty.add(bounds(p, metrics));
+        }
+        return dirty;
+    }
+
+    /**
+     * Drops the presence of peers who have left.
+     * @param peerList full usernames of peers
+     * @param metrics metrics of the font names are drawn in
+     * @return area to repaint
+     */
+    Rectangle retain(List<String> peerList, FontMetrics metrics) {
+        peers.clear();
+        peers.addAll(peerList);
+        Rectangle dirty = new Rectangle(0, 0, -1, -1);
+        Iterator<Presence> it = byPeer.values().iterator();
+        while (it.hasNext()) {
+            Presence p = it.next();
+            if (!peers.contains(p.getPeer())) {
+                dirty.add(bounds(p, metrics));
+                it.remove();
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Draws each peer's shape in progress, then its cursor and name.
+     * @param g graphics object
+     */
+    void paint(Graphics g) {
+        for (Presence p : byPeer.values()) {
+            if (p.getShape() != null) {
+                ShapePainter.drawShape(g, p.getAnchorX(), p.getAnchorY(), p.getX(), p.getY(),
+                        new Color(p.getRGB(), true), p.getShape());
+            }
+            g.setColor(MARKER_COLOUR);
+            g.drawLine(p.getX() - MARKER, p.getY(), p.getX() + MARKER, p.getY());
+            g.drawLine(p.getX(), p.getY() - MARKER, p.getX(), p.getY() + MARKER);
+            g.drawString(p.getPeer(), p.getX() + MARKER + 2, p.getY() + MARKER + g.getFontMetrics().getAscent());
+        }
+    }
+
+    /**
+     * @param p presence, or null
+     * @param metrics metrics of the font names are drawn in
+     * @return area paint() covers for the presence, empty if null
+     */
+    private static Rectangle bounds(Presence p, FontMetrics metrics) {
+        if (p == null) {
+            return new Rectangle(0, 0, -1, -1);
+        }
+        Rectangle bounds = new Rectangle(p.getX() - MARKER, p.getY() - MARKER, MARKER * 2 + 1, MARKER * 2 + 1);
+        bounds.add(new Rectangle(p.getX() + MARKER + 2, p.getY() + MARKER,
+                metrics.stringWidth(p.getPeer()) + 1, metrics.getHeight() + 1));
+        if (p.getShape() != null) {
+            bounds.add(ShapePainter.bounds(p.getAnchorX(), p.getAnchorY(), p.getX(), p.getY(), p.getShape()));
+        }
+        return bounds;
+    }
+}
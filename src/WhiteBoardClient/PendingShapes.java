@@ -0,0 +1,93 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.Shape;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Shapes this client has drawn that are not yet on its copy of the board.
+ * They are painted over the board straight away, each under the op id it
+ * was sent with, rather than after a round trip to the server.
+ * A shape leaves once it is on the board: when its operation arrives
+ * carrying its op id, or when the server's reply gives the version it was
+ * added at and the board has reached that version, eg through a snapshot.
+ * A shape the server refuses is taken back.
+ * EDT only.
+ */
+class PendingShapes {
+    private static final class Pending {
+        final Shape shape;
+        // Version the server added the shape at, or -1 until it replies
+        long version = -1;
+
+        Pending(Shape shape) {
+            this.shape = shape;
+        }
+    }
+
+    private final LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * @param opId id the shape was sent with
+     * @param s shape
+     */
+    void add(long opId, Shape s) {
+        pending.put(opId, new Pending(s));
+    }
+
+    /**
+     * Records the server's reply to a shape.
+     * @param opId id the shape was sent with
+     * @param version board version the server added it at
+     */
+    void acknowledged(long opId, long version) {
+        Pending p = pending.get(opId);
+        if (p != null) {
+            p.version = version;
+        }
+    }
+
+    /**
+     * Removes a shape, once its operation has arrived or the server has
+     * refused it.
+     * @param opId id the shape was sent with
+     * @return shape removed, or null if it was not pending
+     */
+    Shape remove(long opId) {
+        Pending p = pending.remove(opId);
+        return p == null ? null : p.shape;
+    }
+
+    /**
+     * Removes the shapes the board now holds.
+     * @param boardVersion version of the board
+     * @return shapes removed
+     */
+    ArrayList<Shape> settle(long boardVersion) {
+        ArrayList<Shape> settled = new ArrayList<>();
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            if (p.version >= 0 && p.version <= boardVersion) {
+                settled.add(p.shape);
+                it.remove();
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Draws the pending shapes, oldest first.
+     * @param g graphics object
+     */
+    void paint(Graphics g) {
+        for (Pending p : pending.values()) {
+            ShapePainter.paint(g, p.shape);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.IClientCallback;
+import remote.IRemoteWhiteBoard;
+import remote.Presence;
+
+import javax.swing.*;
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends this client's cursor and the shape it is dragging out, at most once
+ * per tick. Only the latest presence is sent; a tick is skipped while the
+ * last send is still going, so a slow link never builds a backlog.
+ * Sends go on their own thread, never holding up drawings.
+ * EDT only, apart from start().
+ */
+class PresenceSender {
+    private final IRemoteWhiteBoard remoteWhiteBoard;
+    private final Timer timer;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "presence-sender");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile IClientCallback client = null;
+    // Latest presence not yet sent, or null
+    private Presence latest = null;
+    private boolean sending = false;
+
+    /**
+     * @param remoteWhiteBoard server interface object
+     * @param tickMillis time between sends
+     */
+    PresenceSender(IRemoteWhiteBoard remoteWhiteBoard, int tickMillis) {
+        this.remoteWhiteBoard = remoteWhiteBoard;
+        this.timer = new Timer(Math.max(1, tickMillis), e -> tick());
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * Starts sending, once the server has let the client in.
+     * @param client callback client object
+     */
+    void start(IClientCallback client) {
+        this.client = client;
+        SwingUtilities.invokeLater(timer::start);
+    }
+
+    /**
+     * @param p latest presence, replacing any not yet sent
+     */
+    void update(Presence p) {
+        latest = p;
+    }
+
+    private void tick() {
+        if (latest == null || sending) {
+            return;
+        }
+        Presence p = latest;
+        latest = null;
+        sending = true;
+        sender.execute(() -> {
+            try {
+                remoteWhiteBoard.updatePresence(client, p);
+            } catch (RemoteException ignored) {
+                // Presence is lossy; a lost connection shows up on the next drawing or update
+            } finally {
+                SwingUtilities.invokeLater(() -> sending = false);
+            }
+        });
+    }
+}
@@ -0,0 +1,154 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.IShape;
+import remote.Shape;
+import remote.StrokeCodec;
+
+import java.awt.*;
+
+/**
+ * Draws whiteboard shapes onto a Graphics object.
+ */
+final class ShapePainter {
+
+    private ShapePainter() {}
+
+    /**
+     * Draws a whiteboard shape or text.
+     * @param g graphics object
+     * @param s shape
+     */
+    static void paint(Graphics g, Shape s) {
+        if (s.getShape() == IShape.ShapeType.TEXT) {
+            drawText(g, s.getX(), s.getY(), s.getColour(), s.getText());
+        } else if (s.getShape() == IShape.ShapeType.FREEHAND) {
+            int[] xy = StrokeCodec.decode(s.getX(), s.getY(), s.getPoints());
+            drawStroke(g, xy, xy.length / 2, s.getColour());
+        } else {
+            drawShape(g, s.getX(), s.getY(), s.getX() + s.getWidth(), s.getY() + s.getHeight(), s.getColour(), s.getShape());
+        }
+    }
+
+    /**
+     * Area a shape or text covers when painted, including the pen width.
+     * @param s shape
+     * @param metrics metrics of the font text is drawn in
+     * @return bounding box
+     */
+    static Rectangle bounds(Shape s, FontMetrics metrics) {
+        if (s.getShape() == IShape.ShapeType.TEXT) {
+            // Text is drawn from its baseline
+            return new Rectangle(s.getX(), s.getY() - metrics.getAscent(),
+                    metrics.stringWidth(s.getText()) + 1, metrics.getHeight() + 1);
+        }
+        if (s.getShape() == IShape.ShapeType.FREEHAND) {
+            int[] xy = StrokeCodec.decode(s.getX(), s.getY(), s.getPoints());
+            return strokeBounds(xy, xy.length / 2);
+        }
+        return bounds(s.getX(), s.getY(), s.getX() + s.getWidth(), s.getY() + s.getHeight(), s.getShape());
+    }
+
+    /**
+     * Area drawStroke() covers for the same points, including the pen width.
+     * @param xy points as x, y pairs
+     * @param count number of points, at least one
+     * @return bounding box
+     */
+    static Rectangle strokeBounds(int[] xy, int count) {
+        Rectangle bounds = new Rectangle(xy[0] - 1, xy[1] - 1, 3, 3);
+        for (int i = 1; i < count; i++) {
+            bounds.add(new Rectangle(xy[2 * i] - 1, xy[2 * i + 1] - 1, 3, 3));
+        }
+        return bounds;
+    }
+
+    /**
+     * Area drawShape() covers for the same arguments, including the pen width.
+     * @param x1 left coord
+     * @param y1 upper coord
+     * @param x2 right coord
+     * @param y2 bottom coord
+     * @param shape shape type, not text
+     * @return bounding box
+     */
+    static Rectangle bounds(int x1, int y1, int x2, int y2, IShape.ShapeType shape) {
+        if (shape == IShape.ShapeType.CIRCLE) {
+            int radius = (int) Math.hypot(x2 - x1, y2 - y1);
+            return new Rectangle(x1 - radius - 1, y1 - radius - 1, radius * 2 + 3, radius * 2 + 3);
+        }
+        int xl = Math.min(x1, x2);
+        int yt = Math.min(y1, y2);
+        return new Rectangle(xl - 1, yt - 1, Math.abs(x2 - x1) + 3, Math.abs(y2 - y1) + 3);
+    }
+
+    /**
+     * Translates internal mouse co-ordinates to g.draw method.
+     * Use only for shapes, not text.
+     * @param g graphics object
+     * @param x1 left coord
+     * @param y1 upper coord
+     * @param x2 right coord
+     * @param y2 bottom coord
+     * @param colour shape colour
+     * @param shape shape type
+     */
+    static void drawShape(Graphics g, int x1, int y1, int x2, int y2, Color colour, IShape.ShapeType shape) {
+        int xl = Math.min(x1, x2);
+        int xr = Math.max(x1, x2);
+        int yt = Math.min(y1, y2);
+        int yb = Math.max(y1, y2);
+        int width = xr - xl;
+        int height = yb - yt;
+        int radius = (int) Math.hypot(x2 - x1, y2 - y1);
+        g.setColor(colour);
+
+        switch(shape) {
+            case OVAL:
+                g.drawOval(xl, yt, width, height);
+                break;
+            case CIRCLE:
+                // First click is centre, drag to circumference
+                g.drawOval(x1-radius, y1-radius, radius*2, radius*2);
+                break;
+            case LINE:
+                g.drawLine(x1, y1, x2, y2);
+                break;
+            case RECTANGLE:
+                g.drawRect(xl, yt, width, height);
+                break;
+        }
+    }
+
+    /**
+     * Draws a freehand stroke through its points.
+     * @param g graphics object
+     * @param xy points as x, y pairs
+     * @param count number of points, at least one
+     * @param colour stroke colour
+     */
+    static void drawStroke(Graphics g, int[] xy, int count, Color colour) {
+        g.setColor(colour);
+        if (count == 1) {
+            g.drawLine(xy[0], xy[1], xy[0], xy[1]);
+            return;
+        }
+        for (int i = 1; i < count; i++) {
+            g.drawLine(xy[2 * i - 2], xy[2 * i - 1], xy[2 * i], xy[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Saves text to whiteboard string.
+     * @param g graphics object
+     * @param x1 x coord
+     * @param y1 y coord
+     * @param colour text colour
+     * @param text string
+     */
+    static void drawText(Graphics g, int x1, int y1, Color colour, String text) {
+        g.setColor(colour);
+        g.drawString(text, x1, y1);
+    }
+}
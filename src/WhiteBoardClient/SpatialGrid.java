@@ -0,0 +1,163 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Uniform grid index of shape bounding boxes, keyed by position in the
+ * shape list.
+ * Answers "which shapes touch this rectangle" by visiting only the grid
+ * cells the rectangle covers, so a query costs what it finds rather than
+ * the size of the board. Results come back in shape list order, which is
+ * also paint order.
+ */
+class SpatialGrid {
+    // 128 pixel cells
+    private static final int CELL_BITS = 7;
+    // Shapes covering more cells than this are kept in one list instead
+    private static final int MAX_CELLS_PER_SHAPE = 64;
+
+    private final HashMap<Long, IntList> cells = new HashMap<>();
+    private final IntList oversized = new IntList();
+    private final ArrayList<Rectangle> bounds = new ArrayList<>();
+    // Query each shape was last found by, so a shape in many cells is found once
+    private final IntList foundBy = new IntList();
+    private int queryCount = 0;
+
+    /**
+     * Indexes the next shape in the list.
+     * @param r bounding box of the shape
+     */
+    void add(Rectangle r) {
+        int index = bounds.size();
+        bounds.add(r);
+        foundBy.add(0);
+        int cx1 = r.x >> CELL_BITS;
+        int cy1 = r.y >> CELL_BITS;
+        int cx2 = (r.x + r.width) >> CELL_BITS;
+        int cy2 = (r.y + r.height) >> CELL_BITS;
+        if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > MAX_CELLS_PER_SHAPE) {
+            oversized.add(index);
+            return;
+        }
+        for (int cx = cx1; cx <= cx2; cx++) {
+            for (int cy = cy1; cy <= cy2; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new IntList()).add(index);
+            }
+        }
+    }
+
+    void clear() {
+        cells.clear();
+        oversized.clear();
+        bounds.clear();
+        foundBy.clear();
+    }
+
+    /**
+     * Finds shapes whose bounding box intersects a rectangle.
+     * @param r area to search
+     * @return positions in the shape list, in ascending order
+     */
+    int[] query(Rectangle r) {
+        if (++queryCount == 0) {
+            // Wrapped, so old marks could match again
+            Arrays.fill(foundBy.values, 0, foundBy.size, 0);
+            queryCount = 1;
+        }
+        IntList hits = new IntList();
+        int cx1 = r.x >> CELL_BITS;
+        int cy1 = r.y >> CELL_BITS;
+        int cx2 = (r.x + r.width) >> CELL_BITS;
+        int cy2 = (r.y + r.height) >> CELL_BITS;
+        for (int cx = cx1; cx <= cx2; cx++) {
+            for (int cy = cy1; cy <= cy2; cy++) {
+                IntList cell = cells.get(key(cx, cy));
+                if (cell != null) {
+                    collect(cell, r, hits);
+                }
+            }
+        }
+        collect(oversized, r, hits);
+        int[] found = Arrays.copyOf(hits.values, hits.size);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Finds shapes whose bounding box contains a point.
+     * @param x x coord
+     * @param y y coord
+     * @return positions in the shape list, in ascending order
+     */
+    int[] query(int x, int y) {
+        return query(new Rectangle(x, y, 1, 1));
+    }
+
+    /**
+     * Finds shapes drawn over an area, for selection and erase tools.
+     * @param area area to search
+     * @param shapes shape list the grid indexes
+     * @return shapes whose bounding box intersects the area, in paint order
+     */
+    <T> ArrayList<T> shapesIn(Rectangle area, List<T> shapes) {
+        return pick(query(area), shapes);
+    }
+
+    /**
+     * Finds shapes drawn over a point, for selection tools.
+     * @param x x coord
+     * @param y y coord
+     * @param shapes shape list the grid indexes
+     * @return shapes whose bounding box contains the point, in paint order
+     */
+    <T> ArrayList<T> shapesAt(int x, int y, List<T> shapes) {
+        return pick(query(x, y), shapes);
+    }
+
+    private static <T> ArrayList<T> pick(int[] hits, List<T> shapes) {
+        ArrayList<T> found = new ArrayList<>(hits.length);
+        for (int i : hits) {
+            found.add(shapes.get(i));
+        }
+        return found;
+    }
+
+    private void collect(IntList candidates, Rectangle r, IntList hits) {
+        for (int i = 0; i < candidates.size; i++) {
+            int index = candidates.values[i];
+            if (foundBy.values[index] != queryCount && bounds.get(index).intersects(r)) {
+                foundBy.values[index] = queryCount;
+                hits.add(index);
+            }
+        }
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /**
+     * Growable list of ints, to avoid boxing cell contents.
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.IShape;
+import remote.Shape;
+import remote.StrokeCodec;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Splits a freehand stroke into shapes while it is being drawn.
+ * Dragged points are collected and handed on in batches, each once
+ * BATCH_MILLIS have passed or MAX_BATCH_POINTS have been collected, so peers
+ * see the stroke grow with one call per batch rather than one per mouse
+ * event. Each batch is simplified first, dropping points within EPSILON
+ * pixels of the line through their neighbours, and starts at the point the
+ * last batch ended on, so the pieces join up.
+ * EDT only.
+ */
+class StrokeBatcher {
+    private static final int BATCH_MILLIS = 40;
+    private static final int MAX_BATCH_POINTS = 64;
+    private static final double EPSILON = 1.0;
+
+    private final Consumer<Shape> submit;
+    private final Timer timer = new Timer(BATCH_MILLIS, e -> flush(false));
+    private Color colour;
+    // Whole stroke so far, for drawing it before the server echoes it
+    private int[] stroke = new int[256];
+    private int strokeCount = 0;
+    // Points not yet sent, after the last point sent
+    private int[] batch = new int[2 * (MAX_BATCH_POINTS + 1)];
+    private int batchCount = 0;
+    private boolean sentAny = false;
+
+    /**
+     * @param submit sends each batch, as a freehand shape, to the server
+     */
+    StrokeBatcher(Consumer<Shape> submit) {
+        this.submit = submit;
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Starts a stroke.
+     * @param x x coord
+     * @param y y coord
+     * @param colour stroke colour
+     */
+    void begin(int x, int y, Color colour) {
+        this.colour = colour;
+        strokeCount = 0;
+        batchCount = 0;
+        sentAny = false;
+        add(x, y);
+    }
+
+    /**
+     * Adds a dragged point, sending a batch if it is full.
+     * @param x x coord
+     * @param y y coord
+     * @return area of the board the stroke grew over
+     */
+    Rectangle add(int x, int y) {
+        int lastX = strokeCount > 0 ? stroke[2 * strokeCount - 2] : x;
+        int lastY = strokeCount > 0 ? stroke[2 * strokeCount - 1] : y;
+        if (strokeCount > 0 && lastX == x && lastY == y) {
+            return new Rectangle(x, y, 0, 0);
+        }
+        if (2 * strokeCount == stroke.length) {
+            stroke = Arrays.copyOf(stroke, stroke.length * 2);
+        }
+        stroke[2 * strokeCount] = x;
+        stroke[2 * strokeCount + 1] = y;
+        strokeCount++;
+        batch[2 * batchCount] = x;
+        batch[2 * batchCount + 1] = y;
+        batchCount++;
+        if (batchCount > MAX_BATCH_POINTS) {
+            flush(false);
+        } else if (!timer.isRunning()) {
+            timer.start();
+        }
+        return ShapePainter.bounds(lastX, lastY, x, y, IShape.ShapeType.LINE);
+    }
+
+    /**
+     * Ends the stroke, sending whatever is left.
+     * @param x x coord
+     * @param y y coord
+     */
+    void end(int x, int y) {
+        add(x, y);
+        flush(true);
+    }
+
+    /**
+     * Draws the current or last stroke.
+     * @param g graphics object
+     */
+    void paint(Graphics g) {
+        if (strokeCount > 0) {
+            ShapePainter.drawStroke(g, stroke, strokeCount, colour);
+        }
+    }
+
+    /**
+     * @return area the current or last stroke covers
+     */
+    Rectangle bounds() {
+        return strokeCount == 0 ? new Rectangle() : ShapePainter.strokeBounds(stroke, strokeCount);
+    }
+
+    /**
+     * Sends the points collected since the last batch, starting from the
+     * last point sent.
+     * @param last whether the stroke has ended, so a click with no drag is
+     *             sent as a dot
+     */
+    private void flush(boolean last) {
+        timer.stop();
+        if (batchCount < 2 && (sentAny || !last)) {
+            return;
+        }
+        int[] points = simplify(batch, batchCount, EPSILON);
+        int count = points.length / 2;
+        submit.accept(new Shape(points[0], points[1], colour, StrokeCodec.encode(points, count)));
+        sentAny = true;
+        // Next batch starts where this one ended
+        batch[0] = batch[2 * batchCount - 2];
+        batch[1] = batch[2 * batchCount - 1];
+        batchCount = 1;
+    }
+
+    /**
+     * Douglas-Peucker simplification: keeps the end points, then the point
+     * furthest from the line between them if it is further than epsilon,
+     * and repeats on each side of it.
+     * @param xy points as x, y pairs
+     * @param count number of points
+     * @param epsilon greatest distance a dropped point may be from the result
+     * @return kept points as x, y pairs, including the first and last
+     */
+    static int[] simplify(int[] xy, int count, double epsilon) {
+        if (count < 3) {
+            return Arrays.copyOf(xy, 2 * count);
+        }
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        int[] stack = new int[2 * count];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double furthest = epsilon;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = distance(xy, i, first, last);
+                if (d > furthest) {
+                    furthest = d;
+                    index = i;
+                }
+            }
+            if (index >= 0) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        int[] result = new int[2 * kept];
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                result[j++] = xy[2 * i];
+                result[j++] = xy[2 * i + 1];
+            }
+        }
+        return result;
+    }
+
+    // Distance from point i to the segment between points a and b
+    private static double distance(int[] xy, int i, int a, int b) {
+        double ax = xy[2 * a], ay = xy[2 * a + 1];
+        double dx = xy[2 * b] - ax, dy = xy[2 * b + 1] - ay;
+        double px = xy[2 * i] - ax, py = xy[2 * i + 1] - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return Math.hypot(px, py);
+        }
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+}
@@ -0,0 +1,176 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.BoardOp;
+import remote.Presence;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Hands server callbacks to the GUI on the event dispatch thread.
+ * Callbacks arriving on RMI threads are queued, then applied in batches once
+ * per frame, followed by at most one repaint. Redundant updates are merged
+ * while queued: the latest peer list and the latest presence of each peer
+ * win, the start of a board snapshot
+ * replaces any board updates queued before it, and consecutive operation
+ * lists are joined into one.
+ * Board snapshot chunks are applied within a time budget per frame, so a
+ * large board is drawn progressively instead of freezing the GUI.
+ */
+class UpdatePipeline {
+
+    /**
+     * Chunk of an encoded board snapshot from the server.
+     */
+    private static class BoardSnapshot {
+        final byte[] encodedShapes;
+        final long version;
+        final boolean first;
+        final boolean last;
+
+        BoardSnapshot(byte[] encodedShapes, long version, boolean first, boolean last) {
+            this.encodedShapes = encodedShapes;
+            this.version = version;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Latest chat messages from the server.
+     */
+    private static class MessageSnapshot {
+        final ArrayList<String> messages;
+        final long firstIndex;
+
+        MessageSnapshot(ArrayList<String> messages, long firstIndex) {
+            this.messages = messages;
+            this.firstIndex = firstIndex;
+        }
+    }
+
+    private final ClientGUI clientGUI;
+    private final Timer timer;
+    // Time per frame spent applying snapshot chunks before drawing what has arrived
+    private final long chunkBudgetNanos;
+    // Queued updates in arrival order: BoardSnapshot, MessageSnapshot or ArrayList<BoardOp>
+    private ArrayList<Object> pending = new ArrayList<>();
+    private ArrayList<String> pendingPeerList = null;
+    // Latest presence of each peer, by peer
+    private LinkedHashMap<String, Presence> pendingPresence = new LinkedHashMap<>();
+
+    /**
+     * @param clientGUI GUI to update
+     * @param framesPerSecond most repaints per second caused by server updates
+     */
+    UpdatePipeline(ClientGUI clientGUI, int framesPerSecond) {
+        this.clientGUI = clientGUI;
+        int frameMillis = 1000 / Math.max(1, framesPerSecond);
+        this.chunkBudgetNanos = frameMillis * 500_000L;
+        this.timer = new Timer(frameMillis, e -> flush());
+        this.timer.setCoalesce(true);
+        this.timer.start();
+    }
+
+    synchronized void enqueueSnapshot(byte[] encodedShapes, long version, boolean first, boolean last) {
+        if (first) {
+            // Snapshot already holds the effect of earlier board updates
+            pending.removeIf(u -> !(u instanceof MessageSnapshot));
+        }
+        pending.add(new BoardSnapshot(encodedShapes, version, first, last));
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized void enqueueOps(ArrayList<BoardOp> ops) {
+        Object last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (last instanceof ArrayList) {
+            ((ArrayList<BoardOp>) last).addAll(ops);
+        } else {
+            pending.add(new ArrayList<>(ops));
+        }
+    }
+
+    synchronized void enqueueMessages(ArrayList<String> messages, long firstIndex) {
+        int last = pending.size() - 1;
+        if (last >= 0 && pending.get(last) instanceof MessageSnapshot) {
+            pending.set(last, new MessageSnapshot(messages, firstIndex));
+        } else {
+            pending.add(new MessageSnapshot(messages, firstIndex));
+        }
+    }
+
+    synchronized void enqueuePeerList(ArrayList<String> peerList) {
+        pendingPeerList = peerList;
+    }
+
+    synchronized void enqueuePresence(ArrayList<Presence> presences) {
+        for (Presence p : presences) {
+            pendingPresence.put(p.getPeer(), p);
+        }
+    }
+
+    /**
+     * Applies everything queued, then repaints once. Runs on the EDT.
+     */
+    @SuppressWarnings("unchecked")
+    private void flush() {
+        ArrayList<Object> updates;
+        ArrayList<String> peerList;
+        LinkedHashMap<String, Presence> presence;
+        synchronized (this) {
+            if (pending.isEmpty() && pendingPeerList == null && pendingPresence.isEmpty()) {
+                return;
+            }
+            updates = pending;
+            peerList = pendingPeerList;
+            presence = pendingPresence;
+            pending = new ArrayList<>();
+            pendingPeerList = null;
+            pendingPresence = new LinkedHashMap<>();
+        }
+        long deadline = System.nanoTime() + chunkBudgetNanos;
+        for (int i = 0; i < updates.size(); i++) {
+            Object u = updates.get(i);
+            if (u instanceof BoardSnapshot) {
+                if (System.nanoTime() > deadline) {
+                    // Paint what has arrived; the rest waits for the next frame
+                    requeue(updates.subList(i, updates.size()));
+                    break;
+                }
+                BoardSnapshot snapshot = (BoardSnapshot) u;
+                clientGUI.updateWhiteBoard(snapshot.encodedShapes, snapshot.version, snapshot.first, snapshot.last);
+            } else if (u instanceof MessageSnapshot) {
+                MessageSnapshot snapshot = (MessageSnapshot) u;
+                clientGUI.updateMessageBoard(snapshot.messages, snapshot.firstIndex);
+            } else {
+                clientGUI.applyOps((ArrayList<BoardOp>) u);
+            }
+        }
+        if (peerList != null) {
+            clientGUI.updatePeerList(peerList);
+        }
+        if (!presence.isEmpty()) {
+            // After the peer list, so presence of peers who have left is ignored
+            clientGUI.updatePresence(presence.values());
+        }
+        clientGUI.repaintDirty();
+    }
+
+    /**
+     * Puts updates not applied this frame back in front of any that arrived
+     * since, unless a newer snapshot has already replaced them.
+     * @param rest updates in arrival order, starting with a snapshot chunk
+     */
+    private synchronized void requeue(List<Object> rest) {
+        boolean superseded = pending.stream().anyMatch(u -> u instanceof BoardSnapshot && ((BoardSnapshot) u).first);
+        if (superseded) {
+            // Newer snapshot holds the effect of the rest, except chat
+            rest.removeIf(u -> !(u instanceof MessageSnapshot));
+        }
+        pending.addAll(0, rest);
+    }
+}
@@ -0,0 +1,77 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import remote.ClientUpdate;
+import remote.IClientCallback;
+import remote.IRemoteWhiteBoard;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+
+/**
+ * Fetches updates for a client that polls instead of being called back, eg
+ * from behind NAT. Each update is handed to the client's callback object as
+ * if the server had made the call. Keeps one poll open at a time on its own
+ * thread.
+ */
+class UpdatePoller {
+    // Longest the server holds a poll open before answering with nothing
+    private static final long POLL_WAIT = 30_000;
+
+    private final IRemoteWhiteBoard remoteWhiteBoard;
+    private final IClientCallback clientCallbackServant;
+    private final ClientGUI clientGUI;
+    // Newest board version received. Poll thread only.
+    private long version = -1;
+    private boolean joined;
+
+    /**
+     * @param remoteWhiteBoard server
+     * @param clientCallbackServant callback client object given to join()
+     * @param clientGUI told if the server drops the client
+     */
+    UpdatePoller(IRemoteWhiteBoard remoteWhiteBoard, IClientCallback clientCallbackServant, ClientGUI clientGUI) {
+        this.remoteWhiteBoard = remoteWhiteBoard;
+        this.clientCallbackServant = clientCallbackServant;
+        this.clientGUI = clientGUI;
+    }
+
+    /**
+     * Starts polling.
+     * @param joined whether the server has let the client in, rather than it waiting for the admin
+     */
+    void start(boolean joined) {
+        this.joined = joined;
+        Thread t = new Thread(this::run, "poll");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                ArrayList<ClientUpdate> updates = remoteWhiteBoard.getUpdatesSince(clientCallbackServant, version, POLL_WAIT);
+                if (updates == null) {
+                    // Server no longer knows the client: refused, or dropped
+                    if (joined) {
+                        clientGUI.notifyKick();
+                    } else {
+                        clientGUI.notifyFailure();
+                    }
+                    return;
+                }
+                for (ClientUpdate u : updates) {
+                    if (u.getType() == ClientUpdate.Type.JOINED) {
+                        joined = true;
+                    }
+                    version = Math.max(version, u.getVersion());
+                    u.applyTo(clientCallbackServant);
+                }
+            }
+        } catch (RemoteException e) {
+            System.err.println("Lost connection to server.");
+            System.exit(0);
+        }
+    }
+}
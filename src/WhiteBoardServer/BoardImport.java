@@ -0,0 +1,99 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardCodec;
+import remote.IClientCallback;
+import remote.Shape;
+
+import java.io.IOException;
+
+/**
+ * A board being uploaded in chunks, eg by the admin opening a saved board.
+ * Chunks are checked and collected here, away from the live board, which is
+ * only replaced when the upload is committed. One upload runs at a time;
+ * starting another discards any unfinished one. An upload only answers to
+ * the client that began it.
+ */
+class BoardImport {
+    // Largest board accepted, so an upload cannot exhaust the heap
+    static final int MAX_SHAPES = 5_000_000;
+
+    private long currentId = -1;
+    private long nextId = 0;
+    // Client that began the current upload
+    private IClientCallback owner = null;
+    private ShapeStore shapes = null;
+
+    /**
+     * @param caller client beginning the upload
+     * @return id of the new upload
+     */
+    synchronized long begin(IClientCallback caller) {
+        currentId = nextId++;
+        owner = caller;
+        shapes = new ShapeStore();
+        return currentId;
+    }
+
+    /**
+     * Checks and adds a chunk of shapes.
+     * @param caller client that began the upload
+     * @param importId id from begin()
+     * @param encodedShapes shapes encoded by BoardCodec
+     * @throws IllegalStateException if importId is not caller's current upload
+     * @throws IllegalArgumentException if the chunk is invalid or the board too large
+     */
+    synchronized void append(IClientCallback caller, long importId, byte[] encodedShapes) {
+        check(caller, importId);
+        try {
+            for (Shape s : BoardCodec.decode(encodedShapes)) {
+                if (shapes.size() == MAX_SHAPES) {
+                    abort(caller, importId);
+                    throw new IllegalArgumentException("Board has more than " + MAX_SHAPES + " shapes");
+                }
+                shapes.add(s);
+            }
+        } catch (IOException e) {
+            abort(caller, importId);
+            throw new IllegalArgumentException("Invalid board chunk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ends the upload.
+     * @param caller client that began the upload
+     * @param importId id from begin()
+     * @return uploaded shapes
+     * @throws IllegalStateException if importId is not caller's current upload
+     */
+    synchronized ShapeStore finish(IClientCallback caller, long importId) {
+        check(caller, importId);
+        ShapeStore finished = shapes;
+        discard();
+        return finished;
+    }
+
+    /**
+     * Discards the upload, if it is still the current one and caller began it.
+     * @param caller client that began the upload
+     * @param importId id from begin()
+     */
+    synchronized void abort(IClientCallback caller, long importId) {
+        if (importId == currentId && caller.equals(owner)) {
+            discard();
+        }
+    }
+
+    private void discard() {
+        currentId = -1;
+        owner = null;
+        shapes = null;
+    }
+
+    private void check(IClientCallback caller, long importId) {
+        if (importId != currentId || shapes == null || !caller.equals(owner)) {
+            throw new IllegalStateException("No board upload " + importId + " in progress");
+        }
+    }
+}
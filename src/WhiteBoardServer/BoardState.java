@@ -0,0 +1,208 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardOp;
+import remote.Shape;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Whiteboard and chat state, safe for concurrent RMI calls.
+ * All mutations go through a single sequencer lock that gives each one the
+ * next board version and hands it to the broadcast listener in that order.
+ * Readers never lock: every mutation publishes an immutable Snapshot of
+ * append-only stores, which stays consistent however the board changes after.
+ * Chat is kept in a MessageHistory, which bounds how much stays in memory.
+ * Board operations are also written to an OpLog, which the board is
+ * recovered from when the server starts.
+ */
+class BoardState {
+    // Number of recent operations kept for resync before falling back to a snapshot
+    private static final int HISTORY_LIMIT = 1024;
+
+    /**
+     * Consistent view of the board and chat at one version.
+     */
+    static final class Snapshot {
+        final long version;
+        // Version of the last operation that changed the shapes; chat leaves it be
+        final long boardVersion;
+        final ShapeStore.View shapes;
+        // Number of chat messages sent so far
+        final long messageCount;
+
+        private Snapshot(long version, long boardVersion, ShapeStore.View shapes, long messageCount) {
+            this.version = version;
+            this.boardVersion = boardVersion;
+            this.shapes = shapes;
+            this.messageCount = messageCount;
+        }
+    }
+
+    private final ReentrantLock sequencer = new ReentrantLock();
+    private final Consumer<BoardOp> listener;
+    // Recent operations, indexed by version modulo HISTORY_LIMIT
+    private final AtomicReferenceArray<BoardOp> history = new AtomicReferenceArray<>(HISTORY_LIMIT);
+    private final MessageHistory messages;
+    private final OpLog log;
+    private ShapeStore shapes = new ShapeStore();
+    private long messageCount = 0;
+    private long version = 0;
+    private long boardVersion = 0;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Recovers the board from the log and starts logging.
+     * @param messages chat history, carried on from its archive
+     * @param log board log, not yet started
+     * @param listener receives every operation in version order, with the
+     *                 sequencer held, so must not block
+     * @throws IOException if the log cannot be read or started
+     */
+    BoardState(MessageHistory messages, OpLog log, Consumer<BoardOp> listener) throws IOException {
+        this.messages = messages;
+        this.log = log;
+        this.listener = listener;
+        OpLog.Recovery recovered = log.recover();
+        for (Shape s : recovered.shapes) {
+            shapes.add(s);
+        }
+        version = recovered.version;
+        boardVersion = version;
+        messageCount = messages.count();
+        snapshot = new Snapshot(version, boardVersion, shapes.view(), messageCount);
+        log.start(version);
+    }
+
+    /**
+     * @param s shape to add
+     * @param opId id the drawing client gave the shape, or 0
+     * @return shape operation
+     */
+    BoardOp addShape(Shape s, long opId) {
+        sequencer.lock();
+        try {
+            shapes.add(s);
+            return commit(BoardOp.shape(version + 1, s, opId));
+        } finally {
+            sequencer.unlock();
+        }
+    }
+
+    BoardOp clear() {
+        sequencer.lock();
+        try {
+            shapes = new ShapeStore();
+            return commit(BoardOp.clear(version + 1));
+        } finally {
+            sequencer.unlock();
+        }
+    }
+
+    /**
+     * @param replacement new board contents, no longer appended to by the caller
+     * @return replace operation
+     */
+    BoardOp replace(ShapeStore replacement) {
+        sequencer.lock();
+        try {
+            shapes = replacement;
+            return commit(BoardOp.replace(version + 1));
+        } finally {
+            sequencer.unlock();
+        }
+    }
+
+    /**
+     * @param message chat line
+     * @return message operation
+     */
+    BoardOp addMessage(String message) {
+        boolean evicted;
+        BoardOp op;
+        sequencer.lock();
+        try {
+            evicted = messages.add(message);
+            messageCount = messages.count();
+            op = commit(BoardOp.message(version + 1, message));
+        } finally {
+            sequencer.unlock();
+        }
+        // Disk write, so not with drawing held up
+        if (evicted) {
+            messages.archive();
+        }
+        return op;
+    }
+
+    /**
+     * Publishes a mutation already applied to the board.
+     * Called with the sequencer held.
+     * @param op operation for the next version
+     * @return op
+     */
+    private BoardOp commit(BoardOp op) {
+        version = op.getVersion();
+        history.set((int) (version % HISTORY_LIMIT), op);
+        if (op.getType() != BoardOp.Type.MESSAGE) {
+            boardVersion = version;
+        }
+        snapshot = new Snapshot(version, boardVersion, shapes.view(), messageCount);
+        if (op.getType() != BoardOp.Type.MESSAGE) {
+            log.append(op, snapshot);
+        }
+        listener.accept(op);
+        return op;
+    }
+
+    /**
+     * @return latest published state. Never blocks.
+     */
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Reads chat messages. Never blocks unless they have been archived.
+     * @param before index after the last message wanted
+     * @param max most messages to return
+     * @return messages from max(0, before - max) up to before, oldest first
+     */
+    ArrayList<String> messagePage(long before, int max) {
+        return messages.page(Math.min(before, snapshot.messageCount), max);
+    }
+
+    void close() {
+        log.close();
+        messages.close();
+    }
+
+    /**
+     * Collects operations after a version from the recent history.
+     * Never blocks.
+     * @param fromVersion last version the caller has
+     * @param toVersion last version wanted
+     * @return operations fromVersion+1 to toVersion in order, or null if some
+     *         are no longer held
+     */
+    ArrayList<BoardOp> opsSince(long fromVersion, long toVersion) {
+        if (fromVersion < 0 || toVersion - fromVersion > HISTORY_LIMIT) {
+            return null;
+        }
+        ArrayList<BoardOp> ops = new ArrayList<>((int) (toVersion - fromVersion));
+        for (long v = fromVersion + 1; v <= toVersion; v++) {
+            BoardOp op = history.get((int) (v % HISTORY_LIMIT));
+            if (op == null || op.getVersion() != v) {
+                // Overwritten by a newer operation
+                return null;
+            }
+            ops.add(op);
+        }
+        return ops;
+    }
+}
@@ -0,0 +1,490 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardOp;
+import remote.ClientUpdate;
+import remote.IClientCallback;
+import remote.Presence;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Outbound queue and sender thread for a single client.
+ * Callers only enqueue, so a slow or broken client never holds up the
+ * caller or any other client. Queued operations are sent in batches.
+ * Whole boards are streamed from here too, so a client receives a board's
+ * chunks and the operations after it in order. A replace is never sent as
+ * an operation; the new board is streamed instead.
+ * Peers' presence is kept apart from the queue, latest per peer only, and
+ * sent after everything else; it never counts towards overflow.
+ * Idle clients are sent heartbeats. A client that fails maxMisses calls in
+ * a row, eg by timing out, is evicted.
+ * A client that polls has no sender thread. Its updates are recorded in a
+ * PullMailbox by the thread serving its poll, which waits on the queue like
+ * the sender would. Such a client is evicted once it misses maxMisses
+ * heartbeat intervals without polling.
+ * A client whose callbacks only queue, such as one on the NIO transport,
+ * has no sender thread either. Its queue is drained by a task on a shared
+ * pool whenever work arrives, so thousands of clients need only a few
+ * threads.
+ */
+class ClientDispatcher {
+    // Most operations sent in one applyOps call
+    private static final int MAX_BATCH = 256;
+    // Rough size of one poll's reply; the rest waits for the next poll
+    private static final int MAX_POLL_BYTES = 512 * 1024;
+
+    /**
+     * How a client receives its updates.
+     */
+    enum Mode {
+        // Called back by RMI from the client's own sender thread
+        CALLBACK,
+        // Recorded in a mailbox for the client's polls
+        PULL,
+        // Called back through a client object that only queues, drained on a shared pool
+        QUEUED
+    }
+
+    /**
+     * One-off callback to run on the sender thread.
+     */
+    interface Delivery {
+        void deliver(IClientCallback c) throws RemoteException;
+    }
+
+    private final IClientCallback client;
+    // Where updates go: the client itself, or its mailbox if it polls
+    private final IClientCallback target;
+    private final PullMailbox mailbox;
+    private final Executor pool;
+    private final RemoteWhiteBoardServant servant;
+    private final OverflowPolicy policy;
+    private final int maxMisses;
+    private final ArrayBlockingQueue<BoardOp> ops;
+    private final ConcurrentLinkedQueue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+    private final Thread sender;
+    // Latest peer list not yet sent; older ones are replaced
+    private ArrayList<String> pendingPeerList = null;
+    // Latest presence of each peer not yet sent, by peer
+    private LinkedHashMap<String, Presence> pendingPresence = null;
+    private boolean snapshotPending = false;
+    // Board for a client that has just joined, not yet sent
+    private BoardState.Snapshot pendingBoard = null;
+    private boolean heartbeatDue = false;
+    private boolean overflowed = false;
+    private boolean running = true;
+    // Drain task submitted to the pool and not yet finished
+    private boolean scheduled = false;
+    // Version of the last board streamed; older operations are not sent. Sender only.
+    private long sentThrough = -1;
+    // Calls failed in a row. Sender only.
+    private int misses = 0;
+    private final ArrayList<BoardOp> batch = new ArrayList<>();
+    // Poll in progress, or made since the last heartbeat
+    private boolean polling = false;
+    private boolean polled = true;
+    private int missedPolls = 0;
+
+    /**
+     * @param client callback client object
+     * @param servant server, told when the client overflows or is evicted
+     * @param capacity most operations queued
+     * @param policy what to do when the queue is full
+     * @param maxMisses failed calls or heartbeat intervals without a poll in a row before the client is evicted
+     * @param mailbox where to record updates for a client that polls, or null to call the client back
+     * @param pool pool to drain the queue on if the client's callbacks only queue, or null for a sender thread
+     */
+    ClientDispatcher(IClientCallback client, RemoteWhiteBoardServant servant, int capacity, OverflowPolicy policy,
+                     int maxMisses, PullMailbox mailbox, Executor pool) {
+        this.client = client;
+        this.target = mailbox == null ? client : mailbox;
+        this.mailbox = mailbox;
+        this.pool = pool;
+        this.servant = servant;
+        this.policy = policy;
+        this.maxMisses = maxMisses;
+        this.ops = new ArrayBlockingQueue<>(capacity);
+        if (mailbox == null && pool == null) {
+            this.sender = new Thread(this::run, "dispatch-" + client);
+            this.sender.setDaemon(true);
+        } else {
+            this.sender = null;
+        }
+    }
+
+    void start() {
+        if (sender != null) {
+            sender.start();
+        }
+    }
+
+    /**
+     * @return whether the client polls rather than being called back
+     */
+    boolean isPull() {
+        return mailbox != null;
+    }
+
+    /**
+     * Queues an operation. Applies the overflow policy if the queue is full.
+     * @param op sequenced operation
+     */
+    synchronized void enqueue(BoardOp op) {
+        if (!running || overflowed) {
+            return;
+        }
+        if (!ops.offer(op)) {
+            ops.clear();
+            if (policy == OverflowPolicy.SNAPSHOT) {
+                // Snapshot is taken later, so it will already include op
+                snapshotPending = true;
+            } else {
+                overflowed = true;
+            }
+        }
+        signal();
+    }
+
+    /**
+     * Queues the whole board and recent chat, replacing any queued operations.
+     */
+    synchronized void requestSnapshot() {
+        if (!running || overflowed) {
+            return;
+        }
+        // Snapshot is taken later, so it will include them
+        ops.clear();
+        snapshotPending = true;
+        signal();
+    }
+
+    /**
+     * Queues a particular board snapshot, without chat. Operations queued up
+     * to its version are not sent; later ones follow it.
+     * @param snapshot board snapshot
+     */
+    synchronized void sendBoard(BoardState.Snapshot snapshot) {
+        pendingBoard = snapshot;
+        signal();
+    }
+
+    /**
+     * Queues a peer list, replacing any peer list not yet sent.
+     * @param peerList full usernames of peers
+     */
+    synchronized void enqueuePeerList(ArrayList<String> peerList) {
+        pendingPeerList = peerList;
+        signal();
+    }
+
+    /**
+     * Queues peers' presence, replacing any from the same peers not yet sent.
+     * @param presences latest presence of each peer that has changed
+     */
+    synchronized void enqueuePresence(ArrayList<Presence> presences) {
+        if (!running || overflowed) {
+            return;
+        }
+        if (pendingPresence == null) {
+            pendingPresence = new LinkedHashMap<>();
+        }
+        for (Presence p : presences) {
+            pendingPresence.put(p.getPeer(), p);
+        }
+        signal();
+    }
+
+    /**
+     * Queues a one-off callback.
+     * @param delivery callback to run
+     */
+    synchronized void enqueue(Delivery delivery) {
+        deliveries.add(delivery);
+        signal();
+    }
+
+    /**
+     * Answers a client's request. A client called back is answered at once,
+     * on the calling thread; a client that polls gets the answer in order
+     * with its other updates.
+     * @param delivery callback to run
+     * @throws RemoteException
+     */
+    void reply(Delivery delivery) throws RemoteException {
+        if (mailbox == null) {
+            delivery.deliver(client);
+        } else {
+            enqueue(delivery);
+        }
+    }
+
+    /**
+     * Queues a heartbeat, unless one is already waiting. For a client that
+     * polls, counts the interval as missed if it has not polled, and evicts
+     * it after maxMisses.
+     */
+    void heartbeat() {
+        boolean evict;
+        synchronized (this) {
+            if (mailbox == null) {
+                heartbeatDue = true;
+                signal();
+                return;
+            }
+            missedPolls = polling || polled ? 0 : missedPolls + 1;
+            polled = false;
+            evict = running && missedPolls >= maxMisses;
+        }
+        // Outside the lock, as eviction locks the servant
+        if (evict) {
+            System.err.println("Evicting client after " + missedPolls + " heartbeats without a poll");
+            servant.evict(client);
+        }
+    }
+
+    /**
+     * Waits for updates for a client that polls, then records them and
+     * returns them. Runs on the thread serving the poll, so no thread is kept
+     * for the client between polls. Polls from one client are served one at
+     * a time.
+     * @param version board version the client has; queued operations up to it are skipped
+     * @param maxWaitMillis longest to wait for an update
+     * @return updates in order, empty if none came in time, or null if the client is no longer registered
+     */
+    ArrayList<ClientUpdate> poll(long version, long maxWaitMillis) {
+        synchronized (mailbox) {
+            synchronized (this) {
+                polling = true;
+                polled = true;
+                long deadline = System.nanoTime() + maxWaitMillis * 1_000_000;
+                long remaining = maxWaitMillis;
+                while (running && mailbox.isEmpty() && !hasWork() && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    remaining = (deadline - System.nanoTime()) / 1_000_000;
+                }
+                if (!running) {
+                    polling = false;
+                    return null;
+                }
+            }
+            try {
+                sentThrough = Math.max(sentThrough, version);
+                if (!drain()) {
+                    servant.disconnect(client);
+                    return null;
+                }
+                return mailbox.take(MAX_POLL_BYTES);
+            } finally {
+                synchronized (this) {
+                    polling = false;
+                    polled = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the sender once it has finished its current call.
+     */
+    synchronized void stop() {
+        running = false;
+        signal();
+    }
+
+    /**
+     * Wakes whatever sends to the client: its sender thread, a waiting poll,
+     * or a new drain task on the pool. Called with the lock held.
+     */
+    private void signal() {
+        notifyAll();
+        if (pool != null && running && !scheduled) {
+            scheduled = true;
+            pool.execute(this::drainQueued);
+        }
+    }
+
+    /**
+     * Drain task for a client whose callbacks only queue. Sends one batch,
+     * then goes to the back of the pool if more has queued, so a busy room
+     * never holds the pool from the others. At most one runs per client at
+     * a time.
+     */
+    private void drainQueued() {
+        synchronized (this) {
+            if (!running || !hasWork()) {
+                scheduled = false;
+                return;
+            }
+        }
+        if (!drain()) {
+            servant.disconnect(client);
+            return;
+        }
+        if (misses >= maxMisses) {
+            System.err.println("Evicting unresponsive client after " + misses + " failed calls");
+            servant.evict(client);
+            return;
+        }
+        synchronized (this) {
+            if (!running || !hasWork()) {
+                scheduled = false;
+                return;
+            }
+        }
+        pool.execute(this::drainQueued);
+    }
+
+    /**
+     * Sender loop. Waits for work, then sends it to the client.
+     */
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                while (running && !hasWork()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+            }
+            if (!drain()) {
+                break;
+            }
+            if (misses >= maxMisses) {
+                System.err.println("Evicting unresponsive client after " + misses + " failed calls");
+                servant.evict(client);
+                return;
+            }
+        }
+        servant.disconnect(client);
+    }
+
+    private boolean hasWork() {
+        return overflowed || snapshotPending || pendingBoard != null || !ops.isEmpty() || pendingPeerList != null
+                || !deliveries.isEmpty() || pendingPresence != null || heartbeatDue;
+    }
+
+    /**
+     * Takes everything waiting and sends it outside the queue lock.
+     * Run by the sender thread, or by the thread serving a poll.
+     * @return false if the queue overflowed and the client must be dropped
+     */
+    private boolean drain() {
+        ArrayList<String> peerList;
+        boolean snapshot;
+        BoardState.Snapshot joinBoard;
+        boolean heartbeat;
+        LinkedHashMap<String, Presence> presence;
+        synchronized (this) {
+            if (overflowed) {
+                return false;
+            }
+            snapshot = snapshotPending;
+            snapshotPending = false;
+            joinBoard = pendingBoard;
+            pendingBoard = null;
+            heartbeat = heartbeatDue;
+            heartbeatDue = false;
+            peerList = pendingPeerList;
+            pendingPeerList = null;
+            presence = pendingPresence;
+            pendingPresence = null;
+            // A poll takes every operation; one reply is as cheap as several
+            ops.drainTo(batch, mailbox == null ? MAX_BATCH : Integer.MAX_VALUE);
+        }
+        if (joinBoard != null) {
+            send(c -> {
+                servant.sendBoard(c, joinBoard);
+                sentThrough = Math.max(sentThrough, joinBoard.version);
+            });
+        }
+        if (snapshot) {
+            sendSnapshot();
+        }
+        sendOps(batch);
+        batch.clear();
+        if (peerList != null) {
+            send(c -> c.updatePeerList(peerList));
+        }
+        Delivery d;
+        while ((d = deliveries.poll()) != null) {
+            send(d);
+        }
+        if (presence != null) {
+            ArrayList<Presence> presences = new ArrayList<>(presence.values());
+            send(c -> c.updatePresence(presences));
+        }
+        if (heartbeat) {
+            send(IClientCallback::heartbeat);
+        }
+        return true;
+    }
+
+    /**
+     * Sends operations the client has not had in a snapshot. Streams the
+     * board instead of any replace operation.
+     * @param batch operations in version order
+     */
+    private void sendOps(ArrayList<BoardOp> batch) {
+        batch.removeIf(op -> op.getVersion() <= sentThrough);
+        int replace = 0;
+        while (replace < batch.size() && batch.get(replace).getType() != BoardOp.Type.REPLACE) {
+            replace++;
+        }
+        if (replace < batch.size()) {
+            if (replace > 0) {
+                ArrayList<BoardOp> before = new ArrayList<>(batch.subList(0, replace));
+                send(c -> c.applyOps(before));
+            }
+            // Board is at least as new as the replace
+            sendSnapshot();
+            batch.removeIf(op -> op.getVersion() <= sentThrough);
+        }
+        if (!batch.isEmpty()) {
+            send(c -> c.applyOps(batch));
+        }
+    }
+
+    private void sendSnapshot() {
+        // If this fails the client sees operations newer than the unfinished board and asks again
+        send(c -> sentThrough = servant.sendSnapshot(c));
+    }
+
+    /**
+     * Runs a callback, logging and counting rather than propagating failures
+     * so one lost message does not stop the sender. Skipped once the client
+     * is due to be evicted.
+     * @param delivery callback to run
+     */
+    private void send(Delivery delivery) {
+        if (misses >= maxMisses) {
+            return;
+        }
+        try {
+            delivery.deliver(target);
+            misses = 0;
+        } catch (RemoteException e) {
+            // Client will spot the gap in versions and resync
+            System.err.println("Could not reach client: " + e.getMessage());
+            misses++;
+        } catch (RuntimeException e) {
+            // Failed building the update, eg encoding the board; not the client's fault
+            System.err.println("Could not send update to client: " + e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.IClientCallback;
+import remote.JoinRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Clients waiting for the admin to let them in.
+ * A join only adds a request here and returns, so no server thread waits
+ * while the admin decides. Requests the admin has not answered in time are
+ * refused. Listeners are called with the queue locked, so must not block.
+ * A client that polls waits here for its answer between polls.
+ */
+class JoinQueue {
+
+    /**
+     * A waiting client.
+     */
+    static final class Request {
+        final long id;
+        final IClientCallback client;
+        final String username;
+        final ClientDispatcher.Mode mode;
+        private ScheduledFuture<?> timeout;
+
+        private Request(long id, IClientCallback client, String username, ClientDispatcher.Mode mode) {
+            this.id = id;
+            this.client = client;
+            this.username = username;
+            this.mode = mode;
+        }
+    }
+
+    private final LinkedHashMap<Long, Request> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final long timeoutMillis;
+    private final Consumer<ArrayList<JoinRequest>> onChange;
+    private final Consumer<Request> onTimeout;
+    private long nextId = 0;
+    private volatile boolean autoApprove;
+
+    /**
+     * @param timeoutMillis how long a request waits before it is refused
+     * @param autoApprove whether joins skip the queue
+     * @param onChange receives the requests still waiting whenever they change
+     * @param onTimeout receives requests that timed out
+     * @param timer times out requests, shared with other rooms
+     */
+    JoinQueue(long timeoutMillis, boolean autoApprove, Consumer<ArrayList<JoinRequest>> onChange,
+              Consumer<Request> onTimeout, ScheduledExecutorService timer) {
+        this.timer = timer;
+        this.timeoutMillis = timeoutMillis;
+        this.autoApprove = autoApprove;
+        this.onChange = onChange;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Stops timing out requests, once the room has closed.
+     */
+    synchronized void close() {
+        for (Request r : pending.values()) {
+            r.timeout.cancel(false);
+        }
+    }
+
+    boolean isAutoApprove() {
+        return autoApprove;
+    }
+
+    void setAutoApprove(boolean autoApprove) {
+        this.autoApprove = autoApprove;
+    }
+
+    /**
+     * Queues a client to wait for the admin.
+     * @param client callback client object
+     * @param username client's username, without identifier
+     * @param mode how the client receives updates once let in
+     */
+    synchronized void add(IClientCallback client, String username, ClientDispatcher.Mode mode) {
+        Request r = new Request(nextId++, client, username, mode);
+        pending.put(r.id, r);
+        r.timeout = timer.schedule(() -> expire(r.id), timeoutMillis, TimeUnit.MILLISECONDS);
+        onChange.accept(requests());
+    }
+
+    /**
+     * Takes requests out of the queue, eg once the admin has answered them.
+     * @param ids request ids; ones no longer waiting are skipped
+     * @return requests removed, in the order they joined
+     */
+    synchronized ArrayList<Request> remove(Collection<Long> ids) {
+        ArrayList<Request> removed = new ArrayList<>();
+        for (Request r : pending.values()) {
+            if (ids.contains(r.id)) {
+                removed.add(r);
+            }
+        }
+        for (Request r : removed) {
+            pending.remove(r.id);
+            r.timeout.cancel(false);
+        }
+        if (!removed.isEmpty()) {
+            onChange.accept(requests());
+            notifyAll();
+        }
+        return removed;
+    }
+
+    /**
+     * @param client callback client object
+     * @return whether the client is waiting for the admin
+     */
+    synchronized boolean contains(IClientCallback client) {
+        for (Request r : pending.values()) {
+            if (r.client.equals(client)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until a client is no longer waiting for the admin.
+     * @param client callback client object
+     * @param maxWaitMillis longest to wait
+     */
+    synchronized void await(IClientCallback client, long maxWaitMillis) {
+        long deadline = System.nanoTime() + maxWaitMillis * 1_000_000;
+        long remaining = maxWaitMillis;
+        while (contains(client) && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                return;
+            }
+            remaining = (deadline - System.nanoTime()) / 1_000_000;
+        }
+    }
+
+    /**
+     * @return every waiting request, removed from the queue
+     */
+    synchronized ArrayList<Request> removeAll() {
+        return remove(new ArrayList<>(pending.keySet()));
+    }
+
+    /**
+     * @return requests still waiting, in the order they joined
+     */
+    synchronized ArrayList<JoinRequest> requests() {
+        ArrayList<JoinRequest> list = new ArrayList<>(pending.size());
+        for (Request r : pending.values()) {
+            list.add(new JoinRequest(r.id, r.username));
+        }
+        return list;
+    }
+
+    private synchronized void expire(long id) {
+        Request r = pending.remove(id);
+        if (r != null) {
+            onChange.accept(requests());
+            onTimeout.accept(r);
+            notifyAll();
+        }
+    }
+}
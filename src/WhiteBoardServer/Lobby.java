@@ -0,0 +1,217 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.IRemoteWhiteBoard;
+import remote.IWhiteBoardLobby;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Hosts many independent whiteboards, called rooms, in one server.
+ * A room is opened when a client first asks for it, recovering its board
+ * from its own data directory, and closed once it has had nobody in it for
+ * roomIdleMillis, freeing its board until it is next opened. Each room has
+ * its own servant, admin, peers and chat, and shares the lobby's threads.
+ * Rooms are opened and closed without holding any lock, so recovering or
+ * closing one room never holds up clients of another.
+ * Each open room's rate limit counters are exported over JMX.
+ */
+public class Lobby extends UnicastRemoteObject implements IWhiteBoardLobby {
+    private static final long serialVersionUID = 1L;
+
+    // Room names double as directory names
+    private static final Pattern ROOM_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * A room that is open, or being opened or closed.
+     */
+    private static final class Room {
+        // Completes once the room's board has been recovered
+        final CompletableFuture<RemoteWhiteBoardServant> servant = new CompletableFuture<>();
+        // Completes once the room has closed and released its files
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+        // When the room was last handed out
+        volatile long lastOpened = System.nanoTime();
+    }
+
+    private final ServerSettings settings;
+    private final RoomExecutors executors = new RoomExecutors();
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    // Closing a room waits for its board log, so not on the shared timer
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "room-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param settings server options, shared by every room
+     * @throws RemoteException if the lobby cannot be exported
+     */
+    protected Lobby(ServerSettings settings) throws RemoteException {
+        super(0, settings.socketFactory, settings.socketFactory);
+        this.settings = settings;
+        long check = Math.max(1000, settings.roomIdleMillis / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets a room, opening it if it is not open.
+     * @param room room name: letters, digits, '-' and '_'
+     * @return room's whiteboard
+     * @throws IllegalArgumentException if the name is not valid
+     * @throws RemoteException if the room's board cannot be recovered
+     */
+    public IRemoteWhiteBoard openRoom(String room) throws RemoteException {
+        return open(room);
+    }
+
+    /**
+     * Gets a room, as openRoom(), for transports other than RMI.
+     * Only the first to ask for a room recovers it; others asking meanwhile
+     * wait for it, and asking for any other room is not held up.
+     * @param room room name
+     * @return room's servant
+     * @throws IllegalArgumentException if the name is not valid
+     * @throws RemoteException if the room's board cannot be recovered
+     */
+    RemoteWhiteBoardServant open(String room) throws RemoteException {
+        if (room == null || !ROOM_NAME.matcher(room).matches()) {
+            throw new IllegalArgumentException("Room names are 1 to 64 letters, digits, '-' or '_'");
+        }
+        while (true) {
+            Room fresh = new Room();
+            Room r = rooms.putIfAbsent(room, fresh);
+            if (r == null) {
+                r = fresh;
+                create(room, r);
+            }
+            r.lastOpened = System.nanoTime();
+            RemoteWhiteBoardServant servant = await(room, r);
+            // Read after lastOpened, so an idle check either sees it or has already closed the room
+            if (!servant.isClosed()) {
+                return servant;
+            }
+            // Closing; its files must be released before it is opened again
+            r.released.join();
+        }
+    }
+
+    /**
+     * Recovers a room's board and exports its counters.
+     * @param room room name
+     * @param r room, already in rooms
+     */
+    private void create(String room, Room r) {
+        RemoteWhiteBoardServant servant;
+        try {
+            servant = new RemoteWhiteBoardServant(settings.forRoom(room), executors, () -> closed(room, r));
+        } catch (IOException | RuntimeException e) {
+            // Let the next open try again
+            rooms.remove(room, r);
+            r.servant.completeExceptionally(e);
+            return;
+        }
+        try {
+            platformServer().registerMBean(servant.getRateLimits(), rateLimitsName(room));
+        } catch (JMException e) {
+            System.err.println("Could not export rate limits of room " + room + ": " + e.getMessage());
+        }
+        System.out.println("Opened room " + room);
+        r.servant.complete(servant);
+    }
+
+    /**
+     * Waits for a room to be recovered.
+     * @param room room name
+     * @param r room
+     * @return room's servant
+     * @throws RemoteException if the room's board cannot be recovered
+     */
+    private static RemoteWhiteBoardServant await(String room, Room r) throws RemoteException {
+        try {
+            return r.servant.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted opening room " + room, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RemoteException("Could not open room " + room, cause);
+        }
+    }
+
+    /**
+     * Forgets a room once it has closed, whether its admin left or it was
+     * found idle.
+     * @param room room name
+     * @param r room
+     */
+    private void closed(String room, Room r) {
+        try {
+            platformServer().unregisterMBean(rateLimitsName(room));
+        } catch (JMException ignored) {} // Never exported
+        rooms.remove(room, r);
+        r.released.complete(null);
+        System.out.println("Closed room " + room);
+    }
+
+    /**
+     * Closes rooms nobody has been in or asked for in roomIdleMillis.
+     */
+    private void evictIdle() {
+        for (Room r : rooms.values()) {
+            if (!r.servant.isDone() || r.servant.isCompletedExceptionally()) {
+                continue;
+            }
+            // Closing calls closed(), which drops the room
+            r.servant.join().closeIfIdle(
+                    () -> (System.nanoTime() - r.lastOpened) / 1_000_000 >= settings.roomIdleMillis);
+        }
+    }
+
+    /**
+     * Closes every room, then stops the shared threads. Called on shutdown.
+     */
+    void close() {
+        evictor.shutdownNow();
+        for (Room r : rooms.values()) {
+            try {
+                r.servant.get().close();
+            } catch (ExecutionException ignored) {
+                // Never opened
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executors.shutdown();
+    }
+
+    private static MBeanServer platformServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static ObjectName rateLimitsName(String room) throws JMException {
+        return new ObjectName("WhiteBoardServer:type=RateLimits,room=" + room);
+    }
+}
@@ -0,0 +1,216 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Chat history with a bounded memory footprint.
+ * The most recent messages are kept in a ring buffer. Older ones are moved to
+ * an archive on disk: a data file of length-prefixed UTF-8 messages and an
+ * index file of their offsets, so any page can be read with two seeks.
+ * One writer adds messages; readers never wait on it unless they need
+ * archived messages. A message pushed out of memory is archived by the
+ * writer after it has let go of the board, so chat never stalls drawing.
+ * Messages reach the archive strictly in order, so its files only grow at
+ * the end. The archive is kept across restarts: messages still in memory
+ * are archived on close, and the history carries on from the archive on
+ * start.
+ */
+class MessageHistory {
+    // Messages kept in memory
+    static final int RECENT_LIMIT = 256;
+
+    /**
+     * A message and its position in the whole history.
+     */
+    static final class Entry {
+        final long index;
+        final String text;
+
+        Entry(long index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> recent = new AtomicReferenceArray<>(RECENT_LIMIT);
+    private final RandomAccessFile data;
+    private final RandomAccessFile index;
+    // Pushed out of memory but not yet archived, by index
+    private final ConcurrentHashMap<Long, String> unarchived = new ConcurrentHashMap<>();
+    private long count;
+    // Index of the next message to archive
+    private long archivedCount;
+
+    /**
+     * Opens the history, carrying on from any archive already in dir.
+     * The archive is cut at the first message a crash left missing or torn.
+     * @param dir directory for the archive files
+     * @throws IOException if the archive cannot be opened
+     */
+    MessageHistory(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File dataFile = new File(dir, "chat.dat");
+        File indexFile = new File(dir, "chat.idx");
+        long end = 0;
+        long entries = 0;
+        // Messages are archived in order, so each starts where the last ended
+        try (DataInputStream offsets = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+             DataInputStream lengths = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)))) {
+            long dataLength = dataFile.length();
+            for (long i = indexFile.length() / 8; entries < i; entries++) {
+                if (offsets.readLong() != end || end + 4 > dataLength) {
+                    break;
+                }
+                int length = lengths.readInt();
+                if (length < 0 || end + 4 + length > dataLength) {
+                    break;
+                }
+                lengths.skipBytes(length);
+                end += 4 + length;
+            }
+        } catch (EOFException | FileNotFoundException e) {
+            // Cut short, or no archive yet
+        }
+        data = new RandomAccessFile(dataFile, "rw");
+        index = new RandomAccessFile(indexFile, "rw");
+        data.setLength(end);
+        index.setLength(entries * 8);
+        count = entries;
+        archivedCount = entries;
+    }
+
+    /**
+     * Adds a message. Writer only, under the lock that orders messages.
+     * @param message chat line
+     * @return whether it pushed a message out of memory, for the writer to
+     *         archive() once it has let go of that lock
+     */
+    boolean add(String message) {
+        int slot = (int) (count % RECENT_LIMIT);
+        Entry evicted = recent.get(slot);
+        if (evicted != null) {
+            // Readable from here until it is on disk
+            unarchived.put(evicted.index, evicted.text);
+        }
+        recent.set(slot, new Entry(count, message));
+        count++;
+        return evicted != null;
+    }
+
+    /**
+     * @return number of messages in the history. Writer only.
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * Reads messages before a position. Only reads disk for messages that
+     * are no longer in memory.
+     * @param before index after the last message wanted
+     * @param max most messages to return
+     * @return messages from max(0, before - max) up to before, oldest first;
+     *         none if before or max is not positive
+     */
+    ArrayList<String> page(long before, int max) {
+        if (before <= 0 || max <= 0) {
+            return new ArrayList<>();
+        }
+        long from = Math.max(0, before - max);
+        ArrayList<String> page = new ArrayList<>((int) (before - from));
+        for (long i = from; i < before; i++) {
+            Entry e = recent.get((int) (i % RECENT_LIMIT));
+            String text;
+            if (e != null && e.index == i) {
+                page.add(e.text);
+            } else if ((text = unarchived.get(i)) != null) {
+                // Overwritten, not yet on disk
+                page.add(text);
+            } else {
+                page.add(readArchived(i));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Writes messages pushed out of memory to disk, in order. A message
+     * whose earlier ones are still on their way waits for whichever call
+     * writes those.
+     */
+    synchronized void archive() {
+        String text;
+        while ((text = unarchived.get(archivedCount)) != null) {
+            write(archivedCount, text);
+            unarchived.remove(archivedCount);
+            archivedCount++;
+        }
+    }
+
+    /**
+     * Appends message i to the archive. Called in index order.
+     * @param i message index
+     * @param text message
+     */
+    private void write(long i, String text) {
+        try {
+            long offset = data.length();
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            data.seek(offset);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+            index.seek(i * 8);
+            index.writeLong(offset);
+        } catch (IOException ex) {
+            System.err.println("Could not archive chat: " + ex.getMessage());
+        }
+    }
+
+    private synchronized String readArchived(long i) {
+        try {
+            index.seek(i * 8);
+            data.seek(index.readLong());
+            byte[] bytes = new byte[data.readInt()];
+            data.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            System.err.println("Could not read chat archive: " + ex.getMessage());
+            return "";
+        }
+    }
+
+    /**
+     * Archives the messages still in memory, then closes the archive.
+     * Call once no more messages are added.
+     */
+    synchronized void close() {
+        archive();
+        for (long i = archivedCount; i < count; i++) {
+            Entry e = recent.get((int) (i % RECENT_LIMIT));
+            if (e == null || e.index != i) {
+                break;
+            }
+            write(i, e.text);
+            archivedCount++;
+        }
+        try {
+            data.close();
+            index.close();
+        } catch (IOException ignored) {} // Shutting down anyway
+    }
+}
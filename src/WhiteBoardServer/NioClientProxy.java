@@ -0,0 +1,165 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardOp;
+import remote.IClientCallback;
+import remote.JoinInfo;
+import remote.JoinRequest;
+import remote.Presence;
+import remote.WireProtocol;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+
+/**
+ * Stands in for a client on the NIO transport. Each callback is encoded as
+ * a frame and queued on the client's connection, so none blocks.
+ * Callbacks fail once the connection closes, or once the client stops
+ * reading and too much is queued, which counts towards evicting it.
+ * Presence is dropped rather than queued behind a backlog, as newer
+ * presence will follow.
+ * Identity is the connection, so the servant can key peers on this object.
+ */
+class NioClientProxy implements IClientCallback {
+    // Bytes queued beyond which presence is dropped
+    private static final long PRESENCE_BACKLOG = 64 * 1024;
+
+    private final NioServer.Connection connection;
+    private volatile String username;
+    private volatile Integer id = null;
+    // Bytes written at the last heartbeat
+    private long writtenAtHeartbeat = -1;
+
+    NioClientProxy(NioServer.Connection connection) {
+        this.connection = connection;
+    }
+
+    void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getFullUsername() {
+        return username + "#" + id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void updateWhiteBoard(byte[] encodedShapes, long version, boolean first, boolean last) throws RemoteException {
+        WireProtocol.FrameWriter out = frame(WireProtocol.UPDATE_WHITEBOARD);
+        try {
+            WireProtocol.writeBytes(out, encodedShapes);
+            out.writeLong(version);
+            out.writeBoolean(first);
+            out.writeBoolean(last);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode board", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void applyOps(ArrayList<BoardOp> ops) throws RemoteException {
+        WireProtocol.FrameWriter out = frame(WireProtocol.APPLY_OPS);
+        try {
+            WireProtocol.writeOps(out, ops);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode operations", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void updateMessageBoard(ArrayList<String> messageList, long firstIndex) throws RemoteException {
+        WireProtocol.FrameWriter out = frame(WireProtocol.UPDATE_MESSAGE_BOARD);
+        try {
+            WireProtocol.writeStrings(out, messageList);
+            out.writeLong(firstIndex);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode chat", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void updatePeerList(ArrayList<String> peerList) throws RemoteException {
+        WireProtocol.FrameWriter out = frame(WireProtocol.UPDATE_PEER_LIST);
+        try {
+            WireProtocol.writeStrings(out, peerList);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode peer list", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void updatePresence(ArrayList<Presence> presences) throws RemoteException {
+        if (connection.queuedBytes.get() > PRESENCE_BACKLOG) {
+            return;
+        }
+        WireProtocol.FrameWriter out = frame(WireProtocol.UPDATE_PRESENCE);
+        try {
+            WireProtocol.writePresences(out, presences);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode presence", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void updateJoinRequests(ArrayList<JoinRequest> requests) throws RemoteException {
+        WireProtocol.FrameWriter out = frame(WireProtocol.UPDATE_JOIN_REQUESTS);
+        try {
+            WireProtocol.writeJoinRequests(out, requests);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode join requests", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void notifyJoined(JoinInfo info) throws RemoteException {
+        WireProtocol.FrameWriter out = frame(WireProtocol.NOTIFY_JOINED);
+        try {
+            WireProtocol.writeJoinInfo(out, info);
+        } catch (IOException e) {
+            throw new RemoteException("Could not encode join information", e);
+        }
+        connection.send(out.toFrame(), true);
+    }
+
+    public void notifyFailure() throws RemoteException {
+        connection.send(frame(WireProtocol.NOTIFY_FAILURE).toFrame(), false);
+    }
+
+    public void notifyKick() throws RemoteException {
+        connection.send(frame(WireProtocol.NOTIFY_KICK).toFrame(), false);
+    }
+
+    public void notifyKill() throws RemoteException {
+        connection.send(frame(WireProtocol.NOTIFY_KILL).toFrame(), false);
+    }
+
+    /**
+     * Fails if frames have been waiting since the last heartbeat without a
+     * byte being written, as the client has stopped reading.
+     * @throws RemoteException
+     */
+    public synchronized void heartbeat() throws RemoteException {
+        long written = connection.written.get();
+        if (connection.queuedBytes.get() > 0 && written == writtenAtHeartbeat) {
+            throw new RemoteException("Client is not reading");
+        }
+        writtenAtHeartbeat = written;
+        connection.send(frame(WireProtocol.HEARTBEAT).toFrame(), false);
+    }
+
+    private static WireProtocol.FrameWriter frame(byte opcode) {
+        return new WireProtocol.FrameWriter(opcode, 0);
+    }
+}
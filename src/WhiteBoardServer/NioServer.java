@@ -0,0 +1,627 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.IShape;
+import remote.JoinInfo;
+import remote.OperationRejectedException;
+import remote.RateLimitedException;
+import remote.WireProtocol;
+
+import java.awt.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * NIO transport for the whiteboard, served alongside RMI.
+ * One selector thread does all network I/O for every client, and requests
+ * run on a small worker pool, in order per client. Callbacks to a client
+ * only queue frames for the selector to write, so they never block; its
+ * ClientDispatcher is drained on the rooms' shared pool. A client costs
+ * a connection and a few buffers rather than threads, so one server can
+ * hold thousands.
+ * The selector and workers are shared by every room. A connection names its
+ * room when it joins, and every later request goes to that room.
+ * Frames follow WireProtocol. Queued frames are copied into pooled direct
+ * buffers, so many small frames go out in one write.
+ * A client sending requests faster than the workers run them stops being
+ * read until its queue drains, so TCP pushes back on it rather than its
+ * requests filling the heap. A frame's buffer grows as its bytes arrive,
+ * so a length prefix alone cannot claim memory.
+ */
+class NioServer {
+    // Size of the read buffer and of each pooled write buffer
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Most bytes queued for a client before callbacks to it fail
+    private static final long MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    // Requests, and bytes of them, waiting for a worker before the client stops being read
+    private static final int MAX_QUEUED_REQUESTS = 64;
+    private static final int MAX_QUEUED_REQUEST_BYTES = 4 * 1024 * 1024;
+
+    private final Lobby lobby;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final BufferPool writeBuffers = new BufferPool(BUFFER_SIZE, 256);
+    // Selector thread only
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Connections with frames to write, picked up by the selector thread
+    private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    // Connections whose requests have drained enough to be read again
+    private final ConcurrentLinkedQueue<Connection> pendingResumes = new ConcurrentLinkedQueue<>();
+    // Connections a worker found broken, closed by the selector thread
+    private final ConcurrentLinkedQueue<Connection> pendingCloses = new ConcurrentLinkedQueue<>();
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors() * 2, r -> {
+                Thread t = new Thread(r, "nio-worker");
+                t.setDaemon(true);
+                return t;
+            });
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param lobby rooms the transport calls into
+     * @param port port to listen on
+     * @throws IOException if the port cannot be opened
+     */
+    NioServer(Lobby lobby, int port) throws IOException {
+        this.lobby = lobby;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.selectorThread = new Thread(this::run, "nio-selector");
+        this.selectorThread.setDaemon(true);
+    }
+
+    void start() {
+        selectorThread.start();
+    }
+
+    /**
+     * Stops accepting and drops every connection.
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(1000);
+            serverChannel.close();
+            selector.close();
+        } catch (IOException | InterruptedException ignored) {} // Shutting down anyway
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("NIO transport error: " + e.getMessage());
+                continue;
+            }
+            Connection c;
+            while ((c = pendingCloses.poll()) != null) {
+                close(c);
+            }
+            while ((c = pendingWrites.poll()) != null) {
+                c.writeScheduled.set(false);
+                guard(c, this::flush);
+            }
+            while ((c = pendingResumes.poll()) != null) {
+                guard(c, this::setInterest);
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    try {
+                        accept();
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("NIO transport error: " + e.getMessage());
+                    }
+                    continue;
+                }
+                guard((Connection) key.attachment(), conn -> {
+                    if (key.isReadable()) {
+                        read(conn);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(conn);
+                    }
+                });
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                close((Connection) key.attachment());
+            }
+        }
+    }
+
+    /**
+     * Runs selector work for one connection, dropping the connection rather
+     * than the selector thread if it fails. Selector thread only.
+     * @param conn connection
+     * @param work reads, writes or interest changes for it
+     */
+    private void guard(Connection conn, Consumer<Connection> work) {
+        try {
+            work.accept(conn);
+        } catch (RuntimeException e) {
+            System.err.println("NIO connection error: " + e);
+            close(conn);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        }
+    }
+
+    /**
+     * Reads what has arrived and hands each whole frame to the workers.
+     * @param conn connection
+     */
+    private void read(Connection conn) {
+        try {
+            readBuffer.clear();
+            int n = conn.channel.read(readBuffer);
+            if (n < 0) {
+                close(conn);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (conn.frame == null) {
+                    // Length prefix may arrive split across reads
+                    while (readBuffer.hasRemaining() && conn.header.hasRemaining()) {
+                        conn.header.put(readBuffer.get());
+                    }
+                    if (conn.header.hasRemaining()) {
+                        break;
+                    }
+                    int length = conn.header.getInt(0);
+                    if (length < WireProtocol.HEADER - 4 || length > WireProtocol.MAX_FRAME) {
+                        throw new IOException("Bad frame length: " + length);
+                    }
+                    conn.frame = new byte[Math.min(length, BUFFER_SIZE)];
+                    conn.frameLength = length;
+                    conn.framePosition = 0;
+                }
+                if (conn.framePosition == conn.frame.length) {
+                    conn.frame = Arrays.copyOf(conn.frame, (int) Math.min(conn.frameLength, 2L * conn.frame.length));
+                }
+                int take = Math.min(readBuffer.remaining(), conn.frame.length - conn.framePosition);
+                readBuffer.get(conn.frame, conn.framePosition, take);
+                conn.framePosition += take;
+                if (conn.framePosition == conn.frameLength) {
+                    conn.submit(conn.frame);
+                    conn.frame = null;
+                    conn.header.clear();
+                }
+            }
+            if (conn.readPaused()) {
+                setInterest(conn);
+            }
+        } catch (IOException e) {
+            close(conn);
+        }
+    }
+
+    /**
+     * Sets what the selector waits for on a connection: reads unless its
+     * requests have backed up, and writes while a write is unfinished.
+     * Selector thread only.
+     * @param conn connection
+     */
+    private void setInterest(Connection conn) {
+        if (!conn.key.isValid()) {
+            return;
+        }
+        conn.key.interestOps((conn.readPaused() ? 0 : SelectionKey.OP_READ)
+                | (conn.writePending ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Writes queued frames, batching them into a pooled buffer, until the
+     * queue is empty or the socket is full. Selector thread only.
+     * @param conn connection
+     */
+    private void flush(Connection conn) {
+        if (!conn.key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (conn.writeBuffer != null && conn.writeBuffer.hasRemaining()) {
+                    int n = conn.channel.write(conn.writeBuffer);
+                    conn.written.addAndGet(n);
+                    if (conn.writeBuffer.hasRemaining()) {
+                        conn.writePending = true;
+                        setInterest(conn);
+                        return;
+                    }
+                }
+                if (conn.outbound.isEmpty()) {
+                    break;
+                }
+                if (conn.writeBuffer == null) {
+                    conn.writeBuffer = writeBuffers.acquire();
+                }
+                conn.writeBuffer.clear();
+                ByteBuffer frame;
+                while (conn.writeBuffer.hasRemaining() && (frame = conn.outbound.peek()) != null) {
+                    int take = Math.min(conn.writeBuffer.remaining(), frame.remaining());
+                    ByteBuffer part = frame.duplicate();
+                    part.limit(part.position() + take);
+                    conn.writeBuffer.put(part);
+                    frame.position(frame.position() + take);
+                    if (!frame.hasRemaining()) {
+                        conn.outbound.poll();
+                        conn.queuedBytes.addAndGet(-frame.limit());
+                    }
+                }
+                conn.writeBuffer.flip();
+            }
+            if (conn.writeBuffer != null) {
+                writeBuffers.release(conn.writeBuffer);
+                conn.writeBuffer = null;
+            }
+            conn.writePending = false;
+            setInterest(conn);
+        } catch (IOException e) {
+            close(conn);
+        }
+    }
+
+    /**
+     * Drops a connection from a worker. Its buffers belong to the selector
+     * thread, so it does the closing.
+     * @param conn connection
+     */
+    private void closeLater(Connection conn) {
+        if (!conn.closed.get()) {
+            pendingCloses.add(conn);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Drops a connection. The client is treated as gone, as if it stopped
+     * answering callbacks. Selector thread only.
+     * @param conn connection
+     */
+    private void close(Connection conn) {
+        if (!conn.closed.compareAndSet(false, true)) {
+            return;
+        }
+        conn.key.cancel();
+        try {
+            conn.channel.close();
+        } catch (IOException ignored) {} // Closing anyway
+        if (conn.writeBuffer != null) {
+            writeBuffers.release(conn.writeBuffer);
+            conn.writeBuffer = null;
+        }
+        conn.outbound.clear();
+        RemoteWhiteBoardServant servant = conn.servant;
+        if (servant != null) {
+            // Eviction locks the servant, so not on the selector thread
+            workers.execute(() -> servant.evict(conn.proxy));
+        }
+    }
+
+    /**
+     * Runs one request and queues its reply. Worker thread, one request per
+     * connection at a time.
+     * @param conn connection
+     * @param frame request frame without its length prefix
+     */
+    private void handle(Connection conn, byte[] frame) {
+        WireProtocol.FrameReader in;
+        WireProtocol.FrameWriter out;
+        try {
+            in = new WireProtocol.FrameReader(frame, frame.length);
+            out = new WireProtocol.FrameWriter(WireProtocol.RESULT, in.requestId);
+        } catch (IOException e) {
+            closeLater(conn);
+            return;
+        }
+        try {
+            call(conn, in, out);
+        } catch (IOException e) {
+            // Arguments did not decode
+            closeLater(conn);
+            return;
+        } catch (RateLimitedException e) {
+            out = error(in.requestId, WireProtocol.RATE_LIMITED, e);
+        } catch (OperationRejectedException e) {
+            out = error(in.requestId, WireProtocol.REJECTED, e);
+        } catch (SecurityException e) {
+            out = error(in.requestId, WireProtocol.SECURITY, e);
+        } catch (IllegalArgumentException e) {
+            out = error(in.requestId, WireProtocol.ILLEGAL_ARGUMENT, e);
+        } catch (IllegalStateException e) {
+            out = error(in.requestId, WireProtocol.ILLEGAL_STATE, e);
+        } catch (RuntimeException e) {
+            out = error(in.requestId, WireProtocol.REMOTE, e);
+        }
+        try {
+            conn.send(out.toFrame(), false);
+        } catch (RemoteException ignored) {} // Connection is closing
+    }
+
+    /**
+     * Calls the connection's room for a request and writes the result.
+     * A join opens the room it names; any other request before it is refused.
+     * @param conn calling connection
+     * @param in request
+     * @param out reply to write the result to
+     * @throws IOException if the arguments do not decode
+     * @throws OperationRejectedException if the servant refused a drawing or message
+     */
+    private void call(Connection conn, WireProtocol.FrameReader in, WireProtocol.FrameWriter out)
+            throws IOException, OperationRejectedException {
+        NioClientProxy client = conn.proxy;
+        if (in.opcode == WireProtocol.JOIN) {
+            String room = WireProtocol.readString(in);
+            String username = WireProtocol.readString(in);
+            if (conn.servant != null) {
+                throw new IllegalStateException("Already joined");
+            }
+            client.setUsername(username);
+            RemoteWhiteBoardServant servant = lobby.open(room);
+            conn.servant = servant;
+            JoinInfo info = servant.join(client, client.getUsername(), ClientDispatcher.Mode.QUEUED);
+            WireProtocol.writeJoinInfo(out, info);
+            return;
+        }
+        RemoteWhiteBoardServant servant = conn.servant;
+        if (servant == null) {
+            throw new IllegalStateException("Join a room first");
+        }
+        switch (in.opcode) {
+            case WireProtocol.ANSWER_JOIN_REQUESTS: {
+                boolean approve = in.readBoolean();
+                servant.answerJoinRequests(client, WireProtocol.readLongs(in), approve);
+                break;
+            }
+            case WireProtocol.SET_AUTO_APPROVE:
+                servant.setAutoApprove(client, in.readBoolean());
+                break;
+            case WireProtocol.UNREGISTER:
+                servant.unregister(client);
+                break;
+            case WireProtocol.DRAW_SHAPE: {
+                long opId = in.readLong();
+                int x1 = in.readInt();
+                int y1 = in.readInt();
+                int x2 = in.readInt();
+                int y2 = in.readInt();
+                Color colour = new Color(in.readInt(), true);
+                out.writeLong(servant.drawShape(client, opId, x1, y1, x2, y2, colour, shapeType(in.readUnsignedByte())));
+                break;
+            }
+            case WireProtocol.DRAW_TEXT: {
+                long opId = in.readLong();
+                int x1 = in.readInt();
+                int y1 = in.readInt();
+                Color colour = new Color(in.readInt(), true);
+                out.writeLong(servant.drawText(client, opId, x1, y1, colour, WireProtocol.readString(in)));
+                break;
+            }
+            case WireProtocol.DRAW_STROKE: {
+                long opId = in.readLong();
+                int x = in.readInt();
+                int y = in.readInt();
+                Color colour = new Color(in.readInt(), true);
+                out.writeLong(servant.drawStroke(client, opId, x, y, colour, WireProtocol.readBytes(in)));
+                break;
+            }
+            case WireProtocol.GET_SHAPE_LIST:
+                servant.getShapeList(client);
+                break;
+            case WireProtocol.RESYNC:
+                servant.resync(client, in.readLong());
+                break;
+            case WireProtocol.CLEAR_ALL:
+                servant.clearAll();
+                break;
+            case WireProtocol.BEGIN_IMPORT:
+                out.writeLong(servant.beginImport(client));
+                break;
+            case WireProtocol.APPEND_IMPORT_CHUNK: {
+                long importId = in.readLong();
+                servant.appendImportChunk(client, importId, WireProtocol.readBytes(in));
+                break;
+            }
+            case WireProtocol.COMMIT_IMPORT:
+                servant.commitImport(client, in.readLong());
+                break;
+            case WireProtocol.ABORT_IMPORT:
+                servant.abortImport(client, in.readLong());
+                break;
+            case WireProtocol.SEND_MESSAGE:
+                servant.sendMessage(WireProtocol.readString(in), client);
+                break;
+            case WireProtocol.GET_MESSAGE_LIST:
+                servant.getMessageList(client);
+                break;
+            case WireProtocol.GET_MESSAGE_PAGE: {
+                long beforeIndex = in.readLong();
+                WireProtocol.writeStrings(out, servant.getMessagePage(beforeIndex, in.readInt()));
+                break;
+            }
+            case WireProtocol.GET_PEER_LIST:
+                servant.getPeerList(client);
+                break;
+            case WireProtocol.KICK_PEER:
+                servant.kickPeer(WireProtocol.readString(in));
+                break;
+            case WireProtocol.SEND_PRESENCE:
+                servant.updatePresence(client, WireProtocol.readPresence(in, null));
+                break;
+            default:
+                throw new IOException("Unknown request: " + in.opcode);
+        }
+    }
+
+    private static IShape.ShapeType shapeType(int ordinal) throws IOException {
+        IShape.ShapeType[] types = IShape.ShapeType.values();
+        if (ordinal >= types.length) {
+            throw new IOException("Bad shape type: " + ordinal);
+        }
+        return types[ordinal];
+    }
+
+    private static WireProtocol.FrameWriter error(int requestId, byte kind, Exception e) {
+        WireProtocol.FrameWriter out = new WireProtocol.FrameWriter(WireProtocol.ERROR, requestId);
+        try {
+            out.writeByte(kind);
+            WireProtocol.writeString(out, String.valueOf(e.getMessage()));
+            if (e instanceof RateLimitedException) {
+                out.writeLong(((RateLimitedException) e).getRetryAfterMillis());
+            }
+        } catch (IOException impossible) {
+            throw new AssertionError(impossible); // Writes to memory
+        }
+        return out;
+    }
+
+    /**
+     * A client's connection: read state for the selector, queued frames for
+     * it to write, and requests waiting for a worker.
+     */
+    final class Connection {
+        final SocketChannel channel;
+        final NioClientProxy proxy = new NioClientProxy(this);
+        // Room the client joined, or null before it joins
+        volatile RemoteWhiteBoardServant servant;
+        SelectionKey key;
+        final AtomicBoolean closed = new AtomicBoolean(false);
+
+        // Selector thread only
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        // Frame being read, grown as its bytes arrive
+        byte[] frame;
+        int frameLength;
+        int framePosition;
+        ByteBuffer writeBuffer;
+        // Whether a write is waiting for the socket to have room
+        boolean writePending;
+
+        final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        final AtomicLong queuedBytes = new AtomicLong();
+        // Bytes written so far, to spot a client that has stopped reading
+        final AtomicLong written = new AtomicLong();
+        final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+        private final ArrayDeque<byte[]> requests = new ArrayDeque<>();
+        private long requestBytes = 0;
+        private boolean busy = false;
+        // Stopped reading until the requests drain
+        private boolean readPaused = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Queues a frame for the selector to write.
+         * @param frame whole frame
+         * @param bounded whether to refuse the frame if too much is already queued
+         * @throws RemoteException if the connection is closed, or bounded and full
+         */
+        void send(ByteBuffer frame, boolean bounded) throws RemoteException {
+            if (closed.get()) {
+                throw new RemoteException("Connection closed");
+            }
+            if (bounded && queuedBytes.get() > MAX_QUEUED_BYTES) {
+                throw new RemoteException("Client is not reading");
+            }
+            queuedBytes.addAndGet(frame.remaining());
+            outbound.add(frame);
+            if (writeScheduled.compareAndSet(false, true)) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Queues a request to run after the connection's earlier ones.
+         * @param frame request frame without its length prefix
+         */
+        void submit(byte[] frame) {
+            synchronized (this) {
+                requests.add(frame);
+                requestBytes += frame.length;
+                if (requests.size() >= MAX_QUEUED_REQUESTS || requestBytes >= MAX_QUEUED_REQUEST_BYTES) {
+                    readPaused = true;
+                }
+                if (busy) {
+                    return;
+                }
+                busy = true;
+            }
+            workers.execute(this::runRequests);
+        }
+
+        synchronized boolean readPaused() {
+            return readPaused;
+        }
+
+        private void runRequests() {
+            while (true) {
+                byte[] frame;
+                boolean resume = false;
+                synchronized (this) {
+                    frame = requests.poll();
+                    if (frame != null) {
+                        requestBytes -= frame.length;
+                    }
+                    if (readPaused && requests.size() <= MAX_QUEUED_REQUESTS / 2
+                            && requestBytes <= MAX_QUEUED_REQUEST_BYTES / 2) {
+                        readPaused = false;
+                        resume = true;
+                    }
+                    if (frame == null) {
+                        busy = false;
+                    }
+                }
+                if (resume) {
+                    pendingResumes.add(this);
+                    selector.wakeup();
+                }
+                if (frame == null) {
+                    return;
+                }
+                handle(this, frame);
+            }
+        }
+    }
+}
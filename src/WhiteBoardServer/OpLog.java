@@ -0,0 +1,410 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardCodec;
+import remote.BoardOp;
+import remote.Shape;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Durable record of board changes, so a restarted server gets its board back.
+ * Every board operation is appended to a log segment as a length-prefixed,
+ * CRC32-checked record. A background writer takes whatever operations have
+ * queued up, writes them together and syncs the file once for the batch, so
+ * appending never waits on the disk. Writers for every room share a pool;
+ * each log has at most one batch being written, so its records stay in order.
+ * Every snapshotInterval operations the writer starts a new segment and the
+ * whole board is written to a snapshot file in the background. Once the
+ * snapshot is in place the segments it covers are deleted, so recovery only
+ * replays the operations since the last snapshot.
+ * Chat is not logged.
+ */
+class OpLog {
+    private static final String SNAPSHOT = "board.snap";
+    private static final String SEGMENT_PREFIX = "board-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Writer batches at most this many operations per sync
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Board read back from disk.
+     */
+    static final class Recovery {
+        final long version;
+        final ArrayList<Shape> shapes;
+
+        private Recovery(long version, ArrayList<Shape> shapes) {
+            this.version = version;
+            this.shapes = shapes;
+        }
+    }
+
+    /**
+     * Operation waiting to be written, with the board as it was after it.
+     */
+    private static final class Pending {
+        final BoardOp op;
+        final BoardState.Snapshot snapshot;
+
+        Pending(BoardOp op, BoardState.Snapshot snapshot) {
+            this.op = op;
+            this.snapshot = snapshot;
+        }
+    }
+
+    // Tells the writer to finish
+    private static final Pending CLOSE = new Pending(null, null);
+
+    private final File dir;
+    private final int snapshotInterval;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService writer;
+    private final ExecutorService snapshotter;
+    // Whether a batch is queued on or running in the writer pool
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final CountDownLatch closed = new CountDownLatch(1);
+    // Writer only, one batch at a time
+    private FileChannel segment;
+    private long sinceSnapshot = 0;
+    private boolean snapshotRunning = false;
+    private volatile Future<?> lastSnapshot = null;
+
+    /**
+     * @param dir directory for the log and snapshot files
+     * @param snapshotInterval operations between snapshots
+     * @param writer pool that writes batches, shared with other logs
+     * @param snapshotter pool that writes snapshots, shared with other logs
+     * @throws IOException if dir cannot be created
+     */
+    OpLog(File dir, int snapshotInterval, ExecutorService writer, ExecutorService snapshotter) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.dir = dir;
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+        this.writer = writer;
+        this.snapshotter = snapshotter;
+    }
+
+    /**
+     * Rebuilds the board from the last snapshot and the segments after it.
+     * A torn or corrupt record ends the replay; it and anything after it are
+     * discarded.
+     * @return recovered board, empty if nothing was logged
+     * @throws IOException if a file cannot be read
+     */
+    Recovery recover() throws IOException {
+        long version = 0;
+        ArrayList<Shape> shapes = new ArrayList<>();
+        File snapshotFile = new File(dir, SNAPSHOT);
+        if (snapshotFile.isFile()) {
+            // Read rather than mapped, so the file can be replaced on Windows
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+                version = in.readLong();
+                shapes = new BoardCodec.Reader(in).readAll();
+            }
+        }
+
+        boolean intact = true;
+        for (File f : segments()) {
+            if (!intact) {
+                // Cannot be applied after the lost operations
+                Files.delete(f.toPath());
+                continue;
+            }
+            long length = f.length();
+            long good = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                while (good < length) {
+                    byte[] record = readRecord(in, length - good);
+                    if (record == null) {
+                        break;
+                    }
+                    DataInputStream op = new DataInputStream(new ByteArrayInputStream(record));
+                    long v = op.readLong();
+                    if (v > version) {
+                        version = v;
+                        shapes = replay(op, shapes);
+                    }
+                    good += 8 + record.length;
+                }
+            }
+            if (good < length) {
+                System.err.println("Discarding damaged board log after version " + version + " in " + f.getName());
+                try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+                    file.setLength(good);
+                }
+                intact = false;
+            }
+        }
+        return new Recovery(version, shapes);
+    }
+
+    /**
+     * @param remaining bytes left in the segment
+     * @return record payload, or null if the record is torn or fails its check
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length < 9 || length > remaining - 8) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            CRC32 check = new CRC32();
+            check.update(record, 0, length);
+            return (int) check.getValue() == crc ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static ArrayList<Shape> replay(DataInputStream in, ArrayList<Shape> shapes) throws IOException {
+        BoardOp.Type type = BoardOp.Type.values()[in.readByte()];
+        switch (type) {
+            case SHAPE:
+                shapes.add(BoardCodec.readShape(in));
+                return shapes;
+            case CLEAR:
+                return new ArrayList<>();
+            case REPLACE:
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                return BoardCodec.decode(encoded);
+            default:
+                return shapes;
+        }
+    }
+
+    /**
+     * Opens a new segment to append to. Call after recover().
+     * @param version last version already on disk
+     * @throws IOException if the segment cannot be created
+     */
+    void start(long version) throws IOException {
+        segment = openSegment(version + 1);
+    }
+
+    /**
+     * Queues a board operation to be written. Never blocks.
+     * Called with the sequencer held, so operations arrive in version order.
+     * @param op board operation, not a chat message
+     * @param snapshot board just after op
+     */
+    void append(BoardOp op, BoardState.Snapshot snapshot) {
+        queue.add(new Pending(op, snapshot));
+        schedule();
+    }
+
+    /**
+     * Writes everything queued, then closes the log and waits for any
+     * running snapshot.
+     */
+    void close() {
+        queue.add(CLOSE);
+        schedule();
+        try {
+            closed.await();
+            Future<?> snapshot = lastSnapshot;
+            if (snapshot != null) {
+                snapshot.get(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignored) {} // Reported by the snapshot itself
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            writer.execute(this::writeBatch);
+        }
+    }
+
+    /**
+     * Writes one batch, then goes to the back of the pool if more has
+     * queued, so a busy log never holds a writer from the others.
+     */
+    private void writeBatch() {
+        ArrayList<Pending> batch = new ArrayList<>();
+        queue.drainTo(batch, MAX_BATCH);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean closing = false;
+        Pending last = null;
+        for (Pending p : batch) {
+            if (p == CLOSE) {
+                closing = true;
+            } else {
+                try {
+                    writeRecord(bytes, p);
+                } catch (RuntimeException e) {
+                    // Later operations are still logged
+                    System.err.println("Could not log board version " + p.op.getVersion() + ": " + e);
+                    continue;
+                }
+                last = p;
+                sinceSnapshot++;
+            }
+        }
+        if (last != null) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer);
+                }
+                segment.force(false);
+            } catch (IOException e) {
+                System.err.println("Could not write board log: " + e.getMessage());
+            }
+            if (sinceSnapshot >= snapshotInterval && !closing) {
+                rotate(last.snapshot);
+            }
+        }
+        if (closing) {
+            try {
+                segment.close();
+            } catch (IOException ignored) {} // Closing anyway
+            closed.countDown();
+            return;
+        }
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream bytes, Pending p) {
+        BoardOp op = p.op;
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeLong(op.getVersion());
+            out.writeByte(op.getType().ordinal());
+            if (op.getType() == BoardOp.Type.SHAPE) {
+                BoardCodec.writeShape(out, op.getShape());
+            } else if (op.getType() == BoardOp.Type.REPLACE) {
+                // Board just after the replace is the new contents
+                byte[] encoded = BoardCodec.encode(p.snapshot.shapes.export(), p.snapshot.shapes.size());
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+            byte[] record = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(record.length);
+            header.writeInt((int) crc.getValue());
+            bytes.write(record);
+        } catch (IOException e) {
+            // Only writing to memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts a new segment and snapshots the board in the background.
+     * Writer only.
+     * @param snapshot board at the end of the current segment
+     */
+    private void rotate(BoardState.Snapshot snapshot) {
+        synchronized (this) {
+            if (snapshotRunning) {
+                // Try again after the next batch
+                return;
+            }
+            snapshotRunning = true;
+        }
+        try {
+            segment.close();
+            segment = openSegment(snapshot.version + 1);
+        } catch (IOException e) {
+            System.err.println("Could not start board log segment: " + e.getMessage());
+            synchronized (this) {
+                snapshotRunning = false;
+            }
+            return;
+        }
+        sinceSnapshot = 0;
+        lastSnapshot = snapshotter.submit(() -> {
+            try {
+                writeSnapshot(snapshot);
+            } catch (IOException e) {
+                System.err.println("Could not snapshot board: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    snapshotRunning = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the snapshot file, then deletes the segments it covers.
+     */
+    private void writeSnapshot(BoardState.Snapshot snapshot) throws IOException {
+        File temp = new File(dir, SNAPSHOT + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp);
+        try {
+            new DataOutputStream(file).writeLong(snapshot.version);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        try (BoardCodec.Writer out = new BoardCodec.Writer(file)) {
+            snapshot.shapes.export().writeTo(out);
+        }
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), new File(dir, SNAPSHOT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (File f : segments()) {
+            if (firstVersion(f) <= snapshot.version) {
+                Files.delete(f.toPath());
+            }
+        }
+    }
+
+    private FileChannel openSegment(long firstVersion) throws IOException {
+        File f = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, firstVersion, SEGMENT_SUFFIX));
+        return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return segment files, oldest first
+     */
+    private File[] segments() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        // Zero padded, so name order is version order
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long firstVersion(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,23 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+/**
+ * What to do when a client's outbound queue fills up because the client
+ * cannot keep up with the board.
+ */
+public enum OverflowPolicy {
+    // Drop queued operations and send the client a fresh snapshot instead
+    SNAPSHOT,
+    // Drop the client from the whiteboard
+    DISCONNECT;
+
+    /**
+     * Parses a policy name, as given on the command line.
+     * @param name policy name, case insensitive
+     * @return matching policy
+     */
+    public static OverflowPolicy parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
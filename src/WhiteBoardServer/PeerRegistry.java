@@ -0,0 +1,115 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.IClientCallback;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-side record of connected clients.
+ * Usernames and ids are captured once at registration, so looking up a peer
+ * or building the peer list never calls back into a client.
+ * Changes must be made under one lock held by the caller. Lookups and the
+ * peer and peer list snapshots can be read without it, so draws and chat
+ * never wait on joins.
+ */
+class PeerRegistry {
+
+    /**
+     * A registered client and its cached identity.
+     */
+    static class Peer {
+        final IClientCallback client;
+        final int id;
+        final String username;
+        final String fullUsername;
+        final ClientDispatcher dispatcher;
+        final RateLimits.Client limits;
+
+        Peer(IClientCallback client, int id, String username, ClientDispatcher dispatcher, RateLimits.Client limits) {
+            this.client = client;
+            this.id = id;
+            this.username = username;
+            this.fullUsername = username + "#" + id;
+            this.dispatcher = dispatcher;
+            this.limits = limits;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Peer> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Peer> byFullUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<IClientCallback, Peer> byClient = new ConcurrentHashMap<>();
+    // In join order. Rebuilt only when membership changes; never modified once published
+    private volatile ArrayList<Peer> peerSnapshot = new ArrayList<>();
+    private volatile ArrayList<String> peerList = new ArrayList<>();
+
+    void add(Peer peer) {
+        byId.put(peer.id, peer);
+        byFullUsername.put(peer.fullUsername, peer);
+        byClient.put(peer.client, peer);
+        ArrayList<Peer> snapshot = new ArrayList<>(peerSnapshot);
+        snapshot.add(peer);
+        publish(snapshot);
+    }
+
+    /**
+     * @param client callback client object
+     * @return removed peer, or null if client was not registered
+     */
+    Peer remove(IClientCallback client) {
+        Peer peer = byClient.remove(client);
+        if (peer != null) {
+            byId.remove(peer.id);
+            byFullUsername.remove(peer.fullUsername);
+            ArrayList<Peer> snapshot = new ArrayList<>(peerSnapshot);
+            snapshot.remove(peer);
+            publish(snapshot);
+        }
+        return peer;
+    }
+
+    /**
+     * @param client callback client object, or null
+     * @return matching peer, or null
+     */
+    Peer get(IClientCallback client) {
+        return client == null ? null : byClient.get(client);
+    }
+
+    Peer get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * @param fullUsername username including identifier eg JSmith#23, or null
+     * @return matching peer, or null
+     */
+    Peer get(String fullUsername) {
+        return fullUsername == null ? null : byFullUsername.get(fullUsername);
+    }
+
+    /**
+     * @return all peers in join order. Shared, do not modify.
+     */
+    ArrayList<Peer> peers() {
+        return peerSnapshot;
+    }
+
+    /**
+     * @return full usernames of all peers in join order. Shared, do not modify.
+     */
+    ArrayList<String> getPeerList() {
+        return peerList;
+    }
+
+    private void publish(ArrayList<Peer> snapshot) {
+        ArrayList<String> list = new ArrayList<>(snapshot.size());
+        for (Peer p : snapshot) {
+            list.add(p.fullUsername);
+        }
+        peerSnapshot = snapshot;
+        peerList = list;
+    }
+}
@@ -0,0 +1,67 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.Presence;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latest cursor and in-progress shape of each client, relayed to the other
+ * clients at a fixed tick.
+ * A client may send presence as often as it likes; only the last it sent
+ * before a tick goes out, so each client costs the others at most one
+ * presence per tick. Presence never touches the board, its sequencer or
+ * its log, and a client behind on presence simply skips to the latest.
+ */
+class PresenceRelay {
+    // Sent since the last tick, by sender, latest only
+    private LinkedHashMap<PeerRegistry.Peer, Presence> changed = new LinkedHashMap<>();
+
+    /**
+     * Records a client's presence, replacing any not yet relayed.
+     * @param peer client it came from
+     * @param presence presence sent by the client
+     */
+    synchronized void update(PeerRegistry.Peer peer, Presence presence) {
+        changed.put(peer, presence.from(peer.fullUsername));
+    }
+
+    /**
+     * Forgets a client that has left.
+     * @param peer client that has left
+     */
+    synchronized void remove(PeerRegistry.Peer peer) {
+        changed.remove(peer);
+    }
+
+    /**
+     * Queues what has changed since the last tick for every client, except
+     * each client's own presence.
+     * @param peers clients to relay to
+     */
+    void tick(List<PeerRegistry.Peer> peers) {
+        LinkedHashMap<PeerRegistry.Peer, Presence> sent;
+        synchronized (this) {
+            if (changed.isEmpty()) {
+                return;
+            }
+            sent = changed;
+            changed = new LinkedHashMap<>();
+        }
+        for (PeerRegistry.Peer p : peers) {
+            ArrayList<Presence> others = new ArrayList<>(sent.size());
+            for (Map.Entry<PeerRegistry.Peer, Presence> e : sent.entrySet()) {
+                if (e.getKey() != p) {
+                    others.add(e.getValue());
+                }
+            }
+            if (!others.isEmpty()) {
+                p.dispatcher.enqueuePresence(others);
+            }
+        }
+    }
+}
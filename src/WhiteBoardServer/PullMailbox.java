@@ -0,0 +1,111 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardOp;
+import remote.ClientUpdate;
+import remote.IClientCallback;
+import remote.JoinInfo;
+import remote.JoinRequest;
+import remote.Presence;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Stands in for a polling client's callback object on the server.
+ * Its dispatcher sends to it as to any client, and each call is recorded as
+ * a ClientUpdate for the client to fetch with its next poll. Never called
+ * remotely. Used only by the thread serving the client's poll.
+ */
+class PullMailbox implements IClientCallback {
+    private final ArrayDeque<ClientUpdate> updates = new ArrayDeque<>();
+    private final String username;
+    private Integer id = null;
+
+    PullMailbox(String username) {
+        this.username = username;
+    }
+
+    boolean isEmpty() {
+        return updates.isEmpty();
+    }
+
+    /**
+     * Takes updates in the order they were recorded. Stops once maxBytes is
+     * reached, so a large board reaches the client over several polls.
+     * @param maxBytes rough size at which to stop; at least one update is taken
+     * @return updates taken
+     */
+    ArrayList<ClientUpdate> take(int maxBytes) {
+        ArrayList<ClientUpdate> taken = new ArrayList<>();
+        int bytes = 0;
+        while (!updates.isEmpty() && (taken.isEmpty() || bytes < maxBytes)) {
+            ClientUpdate u = updates.poll();
+            bytes += u.getSize();
+            taken.add(u);
+        }
+        return taken;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getFullUsername() {
+        return username + "#" + id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void updateWhiteBoard(byte[] encodedShapes, long version, boolean first, boolean last) {
+        updates.add(ClientUpdate.board(encodedShapes, version, first, last));
+    }
+
+    public void applyOps(ArrayList<BoardOp> ops) {
+        // Dispatcher reuses its batch list
+        updates.add(ClientUpdate.ops(new ArrayList<>(ops)));
+    }
+
+    public void updateMessageBoard(ArrayList<String> messageList, long firstIndex) {
+        updates.add(ClientUpdate.messages(messageList, firstIndex));
+    }
+
+    public void updatePeerList(ArrayList<String> peerList) {
+        updates.add(ClientUpdate.peerList(peerList));
+    }
+
+    public void updatePresence(ArrayList<Presence> presences) {
+        updates.add(ClientUpdate.presence(presences));
+    }
+
+    public void updateJoinRequests(ArrayList<JoinRequest> requests) {
+        updates.add(ClientUpdate.joinRequests(requests));
+    }
+
+    public void notifyJoined(JoinInfo info) {
+        updates.add(ClientUpdate.joined(info));
+    }
+
+    public void notifyFailure() {
+        updates.add(ClientUpdate.notice(ClientUpdate.Type.FAILURE));
+    }
+
+    public void notifyKick() {
+        updates.add(ClientUpdate.notice(ClientUpdate.Type.KICK));
+    }
+
+    public void notifyKill() {
+        updates.add(ClientUpdate.notice(ClientUpdate.Type.KILL));
+    }
+
+    public void heartbeat() {
+        // Polling clients are never sent heartbeats
+    }
+}
@@ -0,0 +1,112 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.RateLimitedException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how fast each client may change the board or chat, so one client
+ * calling in a loop cannot flood the server and every other client.
+ * Each client has a token bucket per kind of call. A call over the limit is
+ * refused with how long to wait, before it is sequenced or broadcast.
+ * Counters are exported over JMX so operators can see who is throttled.
+ */
+class RateLimits implements RateLimitsMXBean {
+
+    /**
+     * Kinds of call limited separately.
+     */
+    enum Kind {DRAW, CHAT}
+
+    /**
+     * One client's buckets and count of refused calls.
+     */
+    static final class Client {
+        // Null if the kind of call is not limited
+        private final TokenBucket draw;
+        private final TokenBucket chat;
+        private final AtomicLong throttled = new AtomicLong();
+
+        private Client(TokenBucket draw, TokenBucket chat) {
+            this.draw = draw;
+            this.chat = chat;
+        }
+    }
+
+    private final double drawRate;
+    private final int drawBurst;
+    private final double chatRate;
+    private final int chatBurst;
+    private final PeerRegistry peers;
+    private final LongAdder drawsAllowed = new LongAdder();
+    private final LongAdder drawsThrottled = new LongAdder();
+    private final LongAdder messagesAllowed = new LongAdder();
+    private final LongAdder messagesThrottled = new LongAdder();
+
+    /**
+     * @param settings server options, for the rates and bursts
+     * @param peers registered clients, for the counters by client
+     */
+    RateLimits(ServerSettings settings, PeerRegistry peers) {
+        this.drawRate = settings.drawRate;
+        this.drawBurst = settings.drawBurst;
+        this.chatRate = settings.chatRate;
+        this.chatBurst = settings.chatBurst;
+        this.peers = peers;
+    }
+
+    /**
+     * @return full buckets for a client that has just joined
+     */
+    Client newClient() {
+        return new Client(drawRate > 0 ? new TokenBucket(drawRate, drawBurst) : null,
+                chatRate > 0 ? new TokenBucket(chatRate, chatBurst) : null);
+    }
+
+    /**
+     * Takes a token for a call, or refuses it.
+     * @param peer calling client
+     * @param kind kind of call
+     * @throws RateLimitedException if the client is over its limit
+     */
+    void check(PeerRegistry.Peer peer, Kind kind) throws RateLimitedException {
+        TokenBucket bucket = kind == Kind.DRAW ? peer.limits.draw : peer.limits.chat;
+        long wait = bucket == null ? 0 : bucket.take();
+        if (wait == 0) {
+            (kind == Kind.DRAW ? drawsAllowed : messagesAllowed).increment();
+            return;
+        }
+        (kind == Kind.DRAW ? drawsThrottled : messagesThrottled).increment();
+        peer.limits.throttled.incrementAndGet();
+        throw new RateLimitedException(kind == Kind.DRAW ? "Drawing too fast" : "Sending messages too fast", wait);
+    }
+
+    public long getDrawsAllowed() {
+        return drawsAllowed.sum();
+    }
+
+    public long getDrawsThrottled() {
+        return drawsThrottled.sum();
+    }
+
+    public long getMessagesAllowed() {
+        return messagesAllowed.sum();
+    }
+
+    public long getMessagesThrottled() {
+        return messagesThrottled.sum();
+    }
+
+    public Map<String, Long> getThrottledByClient() {
+        LinkedHashMap<String, Long> byClient = new LinkedHashMap<>();
+        for (PeerRegistry.Peer p : peers.peers()) {
+            byClient.put(p.fullUsername, p.limits.throttled.get());
+        }
+        return byClient;
+    }
+}
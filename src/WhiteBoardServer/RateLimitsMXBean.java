@@ -0,0 +1,17 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import java.util.Map;
+
+/**
+ * Rate limit counters, exported over JMX, eg to jconsole.
+ */
+public interface RateLimitsMXBean {
+    long getDrawsAllowed();
+    long getDrawsThrottled();
+    long getMessagesAllowed();
+    long getMessagesThrottled();
+    /** Calls refused so far from each connected client, by full username. */
+    Map<String, Long> getThrottledByClient();
+}
@@ -2,127 +2,607 @@
 
 package WhiteBoardServer;
 
+import remote.BoardOp;
+import remote.ClientUpdate;
 import remote.IClientCallback;
 import remote.IRemoteWhiteBoard;
 import remote.IShape;
+import remote.JoinInfo;
+import remote.JoinRequest;
+import remote.OperationRejectedException;
+import remote.Presence;
+import remote.RateLimitedException;
+import remote.Shape;
+import remote.StrokeCodec;
 
 import java.awt.*;
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
- * RMI remote servant class.
+ * RMI remote servant class, one per room.
  * All whiteboard operations go through this class.
+ * Rooms share their threads through RoomExecutors, so an idle room costs
+ * none, and each keeps at most one task queued per client or log, so a busy
+ * room never holds up another.
+ * A room closes when its admin leaves, or when the lobby finds it idle; a
+ * closed room's files are released and its threads stopped.
  * Contains whiteboard operations and also maintains a copy of the whiteboard
- * state at all times through a shape array list.
+ * state at all times through BoardState.
+ * Each change is sequenced into a board version and only the change itself
+ * is broadcast. Recent operations are kept so lagging clients can catch up.
+ * Broadcasts are handed to a ClientDispatcher per client, so calls return as
+ * soon as the change is sequenced.
+ * Board changes are ordered by BoardState's sequencer; membership changes
+ * lock the servant. Reads lock neither.
+ * Every client is sent a heartbeat each interval, so dead or hung clients
+ * are found and evicted even when the board is quiet.
+ * Clients that cannot be called back, eg behind NAT, can poll instead with
+ * getUpdatesSince(). They get the same updates, in the same order, as the
+ * replies to their polls.
+ * Drawings and chat messages are rate limited per client; see RateLimits.
+ * Cursors and shapes being dragged out are relayed apart from the board, at
+ * a fixed tick, latest per client only. They are never sequenced or kept.
  */
 public class RemoteWhiteBoardServant extends UnicastRemoteObject implements IRemoteWhiteBoard {
-    private ArrayList<IShape> shapeArrayList = new ArrayList<>();
-    private ArrayList<IClientCallback> clientArrayList = new ArrayList<>();
-    private ArrayList<String> messageArrayList = new ArrayList<>();
+    // Chat messages sent to a client joining or resyncing; older ones are paged in on request
+    private static final int CHAT_TAIL = 50;
+    // Longest a poll is held open
+    private static final long MAX_POLL_WAIT = 60_000;
+    // Longest text shape accepted, in characters
+    private static final int MAX_TEXT = 10_000;
+
+    private final BoardState board;
+    private final SnapshotCache snapshotCache = new SnapshotCache();
+    private final BoardImport boardImport = new BoardImport();
+    private final PeerRegistry peers = new PeerRegistry();
+    private final PresenceRelay presence = new PresenceRelay();
+    private final RateLimits rateLimits;
     private int idCounter = 0;
-    private IClientCallback admin = null;
+    private volatile IClientCallback admin = null;
+    private boolean closed = false;
+    private final Runnable onClosed;
+    private final int queueSize;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxMisses;
+    private final JoinQueue joinQueue;
+    // Threads shared with other rooms
+    private final RoomExecutors executors;
+    // Heartbeats and presence ticks, cancelled when the room closes
+    private final ScheduledFuture<?> heartbeat;
+    private final ScheduledFuture<?> presenceTick;
 
-    protected RemoteWhiteBoardServant() throws RemoteException {}
+    /**
+     * @param settings room options, including its data directory
+     * @param executors threads shared by every room
+     * @param onClosed called once the room has closed
+     * @throws IOException if the board cannot be recovered or the chat archive created
+     */
+    protected RemoteWhiteBoardServant(ServerSettings settings, RoomExecutors executors, Runnable onClosed)
+            throws IOException {
+        super(0, settings.socketFactory, settings.socketFactory);
+        this.executors = executors;
+        this.onClosed = onClosed;
+        this.queueSize = settings.queueSize;
+        this.overflowPolicy = settings.overflowPolicy;
+        this.maxMisses = settings.maxMisses;
+        this.rateLimits = new RateLimits(settings, peers);
+        this.board = new BoardState(new MessageHistory(settings.dataDir),
+                new OpLog(settings.dataDir, settings.snapshotInterval, executors.boardLog, executors.snapshots),
+                this::broadcast);
+        this.joinQueue = new JoinQueue(settings.joinTimeoutMillis, settings.autoApprove,
+                this::notifyJoinRequests, this::refuse, executors.timer);
+        this.heartbeat = executors.timer.scheduleWithFixedDelay(this::sendHeartbeats, settings.heartbeatMillis,
+                settings.heartbeatMillis, TimeUnit.MILLISECONDS);
+        this.presenceTick = executors.timer.scheduleAtFixedRate(() -> presence.tick(peers.peers()),
+                settings.presenceMillis, settings.presenceMillis, TimeUnit.MILLISECONDS);
+    }
 
     /**
-     * Registers clients to the server.
-     * Needed for peer list and client call back operations.
+     * Queues a heartbeat to every client. Clients busy with other updates
+     * need none, but one more queued call is cheaper than tracking that.
+     */
+    private void sendHeartbeats() {
+        for (PeerRegistry.Peer p : peers.peers()) {
+            p.dispatcher.heartbeat();
+        }
+    }
+
+    /**
+     * Closes the room: drops every client, stops its heartbeats and ticks and
+     * releases its files. Later calls do nothing.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        release();
+    }
+
+    /**
+     * @return whether the room has closed, or is closing
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the room if nobody is in it or waiting to join.
+     * @param unused whether the lobby has not handed the room out lately,
+     *               checked under the same lock as isClosed()
+     * @return whether the room was closed
+     */
+    boolean closeIfIdle(BooleanSupplier unused) {
+        synchronized (this) {
+            if (closed || !peers.peers().isEmpty() || !joinQueue.requests().isEmpty() || !unused.getAsBoolean()) {
+                return false;
+            }
+            // Joins check this under the same lock, so none can slip in
+            closed = true;
+        }
+        release();
+        return true;
+    }
+
+    private void release() {
+        for (PeerRegistry.Peer p : peers.peers()) {
+            p.dispatcher.stop();
+        }
+        heartbeat.cancel(false);
+        presenceTick.cancel(false);
+        joinQueue.close();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException ignored) {} // Never exported, or already unexported
+        board.close();
+        onClosed.run();
+    }
+
+    /**
+     * @return rate limit counters, for exporting over JMX
+     */
+    RateLimits getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * Registers a client with the server. The first client becomes admin;
+     * others must be let in by the admin, unless auto-approve is on.
+     * Everything the client needs is returned at once, and the board follows
+     * as a stream of snapshot chunks. A client waiting for the admin is sent
+     * the same through notifyJoined() once let in, or notifyFailure() if
+     * refused or not answered in time.
+     * A client that polls is never called back; it gets all of this from
+     * getUpdatesSince(), which returns null once it has been refused.
+     * @param client callback client object; only identifies a client that polls
+     * @param username client's username, without identifier
+     * @param pull whether the client polls rather than being called back
+     * @return client's id, role, peers and chat, or null if waiting for the admin
+     * @throws RemoteException
+     */
+    public JoinInfo join(IClientCallback client, String username, boolean pull) throws RemoteException {
+        return join(client, username, pull ? ClientDispatcher.Mode.PULL : ClientDispatcher.Mode.CALLBACK);
+    }
+
+    /**
+     * Registers a client, as join(), for transports other than RMI.
      * @param client callback client object
+     * @param username client's username, without identifier
+     * @param mode how the client receives updates
+     * @return client's id, role, peers and chat, or null if waiting for the admin
+     */
+    JoinInfo join(IClientCallback client, String username, ClientDispatcher.Mode mode) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Room has closed; open it again");
+            }
+            if (idCounter == 0) {
+                admin = client;
+                return welcome(addClient(client, username, mode), true);
+            }
+            if (joinQueue.isAutoApprove()) {
+                return welcome(addClient(client, username, mode), false);
+            }
+        }
+        joinQueue.add(client, username, mode);
+        if (joinQueue.isAutoApprove()) {
+            // Turned on while this join was being queued
+            synchronized (this) {
+                for (JoinQueue.Request r : joinQueue.removeAll()) {
+                    admit(r);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets a polling client's updates: board chunks, operations, chat, peer
+     * lists and notices, as they would have been sent by callback.
+     * Waits until there is at least one, or maxWaitMillis has passed. Waits
+     * between polls cost no server thread beyond the one serving the call.
+     * @param client callback client object given to join()
+     * @param version board version the client has; queued operations up to it are skipped
+     * @param maxWaitMillis longest to wait for an update, at most a minute
+     * @return updates in order, empty if none came in time, or null if the client is not registered or waiting to join
      * @throws RemoteException
      */
-    public void register(IClientCallback client) throws RemoteException {
-        if (idCounter == 0) {
-            admin = client;
-            addClient(client);
-        } else {
-            boolean accept = admin.notifyNewPeer(client);
-            if (accept) {
-                addClient(client);
+    public ArrayList<ClientUpdate> getUpdatesSince(IClientCallback client, long version, long maxWaitMillis) throws RemoteException {
+        long wait = Math.max(0, Math.min(maxWaitMillis, MAX_POLL_WAIT));
+        PeerRegistry.Peer peer;
+        synchronized (this) {
+            peer = peers.get(client);
+            if (peer == null && !joinQueue.contains(client)) {
+                return null;
+            }
+        }
+        if (peer == null) {
+            joinQueue.await(client, wait);
+            synchronized (this) {
+                peer = peers.get(client);
+                if (peer == null) {
+                    return joinQueue.contains(client) ? new ArrayList<>() : null;
+                }
+            }
+            wait = 0;
+        }
+        if (!peer.dispatcher.isPull()) {
+            throw new IllegalStateException("Client joined to be called back");
+        }
+        return peer.dispatcher.poll(version, wait);
+    }
+
+    /**
+     * Lets in or refuses waiting clients. Returns at once either way.
+     * @param caller callback client object of the admin
+     * @param requestIds ids of the requests answered; ones already gone are skipped
+     * @param approve whether to let them in
+     * @throws RemoteException
+     * @throws SecurityException if caller is not the admin
+     */
+    public synchronized void answerJoinRequests(IClientCallback caller, ArrayList<Long> requestIds, boolean approve) throws RemoteException {
+        checkAdmin(caller);
+        // Locked so a polling joiner is never seen between the queue and the registry
+        for (JoinQueue.Request r : joinQueue.remove(requestIds)) {
+            if (approve) {
+                admit(r);
             } else {
-                client.notifyFailure();
+                refuse(r);
             }
         }
     }
 
     /**
-     * Used by register() to add client to client list.
+     * Turns auto-approve on or off. Turning it on lets in everyone waiting.
+     * @param caller callback client object of the admin
+     * @param autoApprove whether joins skip the admin
+     * @throws RemoteException
+     * @throws SecurityException if caller is not the admin
+     */
+    public synchronized void setAutoApprove(IClientCallback caller, boolean autoApprove) throws RemoteException {
+        checkAdmin(caller);
+        joinQueue.setAutoApprove(autoApprove);
+        if (autoApprove) {
+            for (JoinQueue.Request r : joinQueue.removeAll()) {
+                admit(r);
+            }
+        }
+    }
+
+    private void checkAdmin(IClientCallback caller) {
+        if (caller == null || !caller.equals(admin)) {
+            throw new SecurityException("Only the admin can do that");
+        }
+    }
+
+    /**
+     * Adds a waiting client and sends it its join information.
+     * @param r answered request
+     */
+    private synchronized void admit(JoinQueue.Request r) {
+        PeerRegistry.Peer peer = addClient(r.client, r.username, r.mode);
+        JoinInfo info = welcome(peer, false);
+        peer.dispatcher.enqueue(c -> c.notifyJoined(info));
+    }
+
+    /**
+     * Tells a waiting client it was not let in, off the calling thread.
+     * A client that polls finds out from its next poll instead.
+     * @param r answered request
+     */
+    private void refuse(JoinQueue.Request r) {
+        if (r.mode == ClientDispatcher.Mode.PULL) {
+            return;
+        }
+        IClientCallback client = r.client;
+        executors.joinNotifier.execute(() -> {
+            try {
+                client.notifyFailure();
+            } catch (RemoteException ignored) {} // Joiner has gone anyway
+        });
+    }
+
+    /**
+     * Queues the waiting clients for the admin.
+     * Called by the join queue with it locked, so only enqueues.
+     * @param requests clients waiting, in the order they joined
+     */
+    private void notifyJoinRequests(ArrayList<JoinRequest> requests) {
+        PeerRegistry.Peer peer = peers.get(admin);
+        if (peer != null) {
+            peer.dispatcher.enqueue(c -> c.updateJoinRequests(requests));
+        }
+    }
+
+    /**
+     * Used by join() to add client to the peer registry.
      * Notifies all clients via callback object to update peer list.
      * @param c callback client object
-     * @throws RemoteException
+     * @param username client's username, without identifier
+     * @param mode how the client receives updates
+     * @return new peer
      */
-    private void addClient(IClientCallback c) throws RemoteException {
-        c.setId(idCounter);
-        clientArrayList.add(c);
+    private PeerRegistry.Peer addClient(IClientCallback c, String username, ClientDispatcher.Mode mode) {
+        ClientDispatcher dispatcher = new ClientDispatcher(c, this, queueSize, overflowPolicy, maxMisses,
+                mode == ClientDispatcher.Mode.PULL ? new PullMailbox(username) : null,
+                mode == ClientDispatcher.Mode.QUEUED ? executors.dispatch : null);
+        PeerRegistry.Peer peer = new PeerRegistry.Peer(c, idCounter, username, dispatcher, rateLimits.newClient());
+        peers.add(peer);
+        dispatcher.start();
         idCounter++;
-        notifyAllClients();
+        notifyPeerList();
+        return peer;
+    }
+
+    /**
+     * Starts streaming the board to a new peer and gathers the rest of what
+     * it needs. The peer already receives operations, so the snapshot is
+     * taken after it was added: operations up to the snapshot are skipped and
+     * those after it follow the board.
+     * @param peer new peer
+     * @param isAdmin whether the peer is admin
+     * @return join information at the snapshot's version
+     */
+    private JoinInfo welcome(PeerRegistry.Peer peer, boolean isAdmin) {
+        BoardState.Snapshot snapshot = board.snapshot();
+        peer.dispatcher.sendBoard(snapshot);
+        long firstIndex = Math.max(0, snapshot.messageCount - CHAT_TAIL);
+        return new JoinInfo(peer.id, isAdmin, snapshot.version, peers.getPeerList(),
+                board.messagePage(snapshot.messageCount, CHAT_TAIL), firstIndex);
     }
 
     /**
      * Removes client from client list.
-     * If called by admin, kills server
+     * If called by admin, closes the room
      * @param client callback client object
      * @throws RemoteException
      */
     public void unregister(IClientCallback client) throws RemoteException {
-        if (client.getId() == 0) {
-            killServer();
+        if (client.equals(admin)) {
+            closeRoom();
         } else {
-            clientArrayList.remove(client);
-            notifyAllClients();
+            removeClient(client);
         }
     }
 
     /**
-     * Kills the server. Called only by admin.
+     * Removes client from client list and stops its dispatcher.
+     * Notifies remaining clients of the new peer list.
+     * @param client callback client object
      * @throws RemoteException
      */
-    private void killServer() throws RemoteException {
-        for (IClientCallback c : clientArrayList) {
+    private synchronized void removeClient(IClientCallback client) throws RemoteException {
+        PeerRegistry.Peer peer = peers.remove(client);
+        if (peer != null) {
+            peer.dispatcher.stop();
+            presence.remove(peer);
+            notifyPeerList();
+        }
+    }
+
+    /**
+     * Drops a client whose outbound queue overflowed.
+     * Called from the client's own sender thread.
+     * @param client callback client object
+     */
+    void disconnect(IClientCallback client) {
+        PeerRegistry.Peer peer = peers.get(client);
+        try {
+            removeClient(client);
+            // A client that polls finds out from its next poll
+            if (peer != null && !peer.dispatcher.isPull()) {
+                client.notifyKick();
+            }
+        } catch (RemoteException ignored) {} // Client is already unreachable
+    }
+
+    /**
+     * Drops a client that has stopped answering callbacks.
+     * Called from the client's own sender thread. Losing the admin closes the
+     * room, as if the admin had left.
+     * @param client callback client object
+     */
+    void evict(IClientCallback client) {
+        try {
+            if (client.equals(admin)) {
+                closeRoom();
+            } else {
+                removeClient(client);
+            }
+        } catch (RemoteException ignored) {} // Client is already unreachable
+    }
+
+    /**
+     * Closes the room once its admin has left. Clients are told it has shut
+     * down. Other rooms carry on.
+     * @throws RemoteException
+     */
+    private void closeRoom() throws RemoteException {
+        ArrayList<IClientCallback> clientList;
+        clientList = new ArrayList<>();
+        for (PeerRegistry.Peer p : peers.peers()) {
+            // Clients that poll cannot be called; their next poll fails
+            if (!p.dispatcher.isPull()) {
+                clientList.add(p.client);
+            }
+        }
+        for (IClientCallback c : clientList) {
             try {
                 c.notifyKill();
             } catch (Exception ignored) {} // Connection resets, so ignore error
         }
-        System.exit(0);
+        close();
     }
 
     /**
      * Add a shape to the whiteboard. Then notifies all clients of the change.
+     * @param client callback client object of the client drawing
+     * @param opId id the client gave the shape, carried on its operation
      * @param x1 left coord
      * @param y1 upper coord
      * @param x2 right coord
      * @param y2 bottom coord
      * @param colour colour of shape
-     * @param shape shape type
+     * @param shape shape type, not text or freehand
+     * @return board version the shape was added at
+     * @throws RateLimitedException if the client is drawing too fast
+     * @throws OperationRejectedException if the shape is not valid, or the client has not joined
      * @throws RemoteException
      */
-    public void drawShape(int x1, int y1, int x2, int y2, Color colour, IShape.ShapeType shape) throws RemoteException {
-        shapeArrayList.add(new Shape(x1, y1, x2-x1, y2-y1, colour, shape));
-        notifyAllClients();
+    public long drawShape(IClientCallback client, long opId, int x1, int y1, int x2, int y2, Color colour,
+                          IShape.ShapeType shape) throws RemoteException, OperationRejectedException {
+        checkRate(client, RateLimits.Kind.DRAW);
+        if (shape == null || shape == IShape.ShapeType.TEXT || shape == IShape.ShapeType.FREEHAND || colour == null) {
+            throw new OperationRejectedException("Not a shape: " + shape);
+        }
+        return board.addShape(new Shape(x1, y1, x2-x1, y2-y1, colour, shape), opId).getVersion();
     }
 
     /**
      * Adds a text string to the whiteboard. Then notifies all clients of the
      * change.
+     * @param client callback client object of the client drawing
+     * @param opId id the client gave the text, carried on its operation
      * @param x1 x pos of string
      * @param y1 y pos of string
      * @param colour colour of text
      * @param text string
+     * @return board version the text was added at
+     * @throws RateLimitedException if the client is drawing too fast
+     * @throws OperationRejectedException if the text is empty or too long, or the client has not joined
+     * @throws RemoteException
+     */
+    public long drawText(IClientCallback client, long opId, int x1, int y1, Color colour, String text)
+            throws RemoteException, OperationRejectedException {
+        checkRate(client, RateLimits.Kind.DRAW);
+        if (text == null || text.isEmpty() || text.length() > MAX_TEXT || colour == null) {
+            throw new OperationRejectedException("Text must be 1 to " + MAX_TEXT + " characters");
+        }
+        return board.addShape(new Shape(x1, y1, colour, text), opId).getVersion();
+    }
+
+    /**
+     * Adds part of a freehand stroke to the whiteboard. Then notifies all
+     * clients of the change. A stroke still being drawn arrives as several
+     * of these, each starting where the last ended.
+     * @param client callback client object of the client drawing
+     * @param opId id the client gave this part, carried on its operation
+     * @param x first point's x
+     * @param y first point's y
+     * @param colour stroke colour
+     * @param points later points, encoded by StrokeCodec
+     * @return board version the part was added at
+     * @throws RateLimitedException if the client is drawing too fast
+     * @throws OperationRejectedException if points is corrupt or too long, or the client has not joined
      * @throws RemoteException
      */
-    public void drawText(int x1, int y1, Color colour, String text) throws RemoteException {
-        shapeArrayList.add(new Shape(x1, y1, colour, text));
-        notifyAllClients();
+    public long drawStroke(IClientCallback client, long opId, int x, int y, Color colour, byte[] points)
+            throws RemoteException, OperationRejectedException {
+        checkRate(client, RateLimits.Kind.DRAW);
+        if (points == null || colour == null) {
+            throw new OperationRejectedException("Not a stroke");
+        }
+        try {
+            StrokeCodec.decode(x, y, points);
+        } catch (IllegalArgumentException e) {
+            throw new OperationRejectedException(e.getMessage());
+        }
+        return board.addShape(new Shape(x, y, colour, points), opId).getVersion();
     }
 
     /**
-     * Updates whiteboard for a client
+     * Updates whiteboard for a client.
+     * Registered clients get the board through their dispatcher, so it
+     * arrives in order with their other updates.
      * @param c callback client object
      * @throws RemoteException
      */
     public void getShapeList(IClientCallback c) throws RemoteException {
-        c.updateWhiteBoard(shapeArrayList);
+        PeerRegistry.Peer peer = peers.get(c);
+        if (peer != null) {
+            peer.dispatcher.requestSnapshot();
+        } else {
+            sendBoard(c, board.snapshot());
+        }
+    }
+
+    /**
+     * Sends a client the whole whiteboard and chat.
+     * Used when a client has fallen too far behind for operations alone.
+     * Called from the client's sender thread.
+     * @param c callback client object
+     * @return board version sent
+     * @throws RemoteException
+     */
+    long sendSnapshot(IClientCallback c) throws RemoteException {
+        BoardState.Snapshot snapshot = board.snapshot();
+        sendBoard(c, snapshot);
+        sendRecentMessages(c, snapshot);
+        return snapshot.version;
+    }
+
+    /**
+     * Streams a board to a client, one chunk per call.
+     * @param c callback client object
+     * @param snapshot board snapshot
+     * @throws RemoteException
+     */
+    void sendBoard(IClientCallback c, BoardState.Snapshot snapshot) throws RemoteException {
+        List<byte[]> chunks = snapshotCache.get(snapshot);
+        for (int i = 0; i < chunks.size(); i++) {
+            c.updateWhiteBoard(chunks.get(i), snapshot.version, i == 0, i == chunks.size() - 1);
+        }
+    }
+
+    /**
+     * Catches a client up after it has missed operations.
+     * Replays retained operations newer than fromVersion, or sends a full
+     * snapshot if they are no longer held.
+     * @param c callback client object
+     * @param fromVersion last board version the client applied
+     * @throws RemoteException
+     */
+    public void resync(IClientCallback c, long fromVersion) throws RemoteException {
+        long version = board.snapshot().version;
+        if (fromVersion == version) {
+            return;
+        }
+        ArrayList<BoardOp> missed = board.opsSince(fromVersion, version);
+        if (missed != null && missed.stream().noneMatch(op -> op.getType() == BoardOp.Type.REPLACE)) {
+            reply(c, cb -> cb.applyOps(missed));
+        } else {
+            getShapeList(c);
+        }
     }
 
     /**
@@ -131,30 +611,93 @@ public class RemoteWhiteBoardServant extends UnicastRemoteObject implements IRem
      * @throws RemoteException
      */
     public void clearAll() throws RemoteException {
-        shapeArrayList.clear();
-        notifyAllClients();
+        board.clear();
     }
 
     /**
-     * Loads in a saved whiteboard.
+     * Starts uploading a saved whiteboard, discarding any unfinished upload.
      * Called by admin in "open"
-     * @param shapeList saved whiteboard
+     * @param caller callback client object of the admin
+     * @return id for the upload's other calls
      * @throws RemoteException
+     * @throws SecurityException if caller is not the admin
      */
-    public void replaceAll(ArrayList<IShape> shapeList) throws RemoteException {
-        shapeArrayList = shapeList;
-        notifyAllClients();
+    public long beginImport(IClientCallback caller) throws RemoteException {
+        checkAdmin(caller);
+        return boardImport.begin(caller);
+    }
+
+    /**
+     * Adds the next chunk of an upload. The live board is not touched.
+     * @param caller callback client object of the admin
+     * @param importId id from beginImport()
+     * @param encodedShapes shapes encoded by BoardCodec
+     * @throws RemoteException
+     * @throws SecurityException if caller is not the admin
+     * @throws IllegalArgumentException if the chunk is invalid or the board too large
+     * @throws IllegalStateException if caller has no such upload in progress
+     */
+    public void appendImportChunk(IClientCallback caller, long importId, byte[] encodedShapes) throws RemoteException {
+        checkAdmin(caller);
+        boardImport.append(caller, importId, encodedShapes);
+    }
+
+    /**
+     * Replaces the whiteboard with the uploaded one in a single step.
+     * Clients are streamed the new board.
+     * @param caller callback client object of the admin
+     * @param importId id from beginImport()
+     * @throws RemoteException
+     * @throws SecurityException if caller is not the admin
+     * @throws IllegalStateException if caller has no such upload in progress
+     */
+    public void commitImport(IClientCallback caller, long importId) throws RemoteException {
+        checkAdmin(caller);
+        board.replace(boardImport.finish(caller, importId));
+    }
+
+    /**
+     * Discards an upload.
+     * @param caller callback client object of the admin
+     * @param importId id from beginImport()
+     * @throws RemoteException
+     * @throws SecurityException if caller is not the admin
+     */
+    public void abortImport(IClientCallback caller, long importId) throws RemoteException {
+        checkAdmin(caller);
+        boardImport.abort(caller, importId);
     }
 
     /**
      * Send a message to chat. Then notifies all clients.
      * @param message string messaged always prefixed by username:
      * @param c callback client object
+     * @throws RateLimitedException if the client is sending too fast
+     * @throws SecurityException if the client has not joined
      * @throws RemoteException
      */
-    public void sendMessage(String message, IClientCallback c) throws RemoteException {
-        messageArrayList.add(message);
-        notifyAllClients();
+    public void sendMessage(String message, IClientCallback c) throws RemoteException, RateLimitedException {
+        PeerRegistry.Peer peer = peers.get(c);
+        if (peer == null) {
+            throw new SecurityException("Join the whiteboard first");
+        }
+        rateLimits.check(peer, RateLimits.Kind.CHAT);
+        board.addMessage(message);
+    }
+
+    /**
+     * Takes a token for a client's call.
+     * @param client callback client object
+     * @param kind kind of call
+     * @throws RateLimitedException if the client is over its limit
+     * @throws OperationRejectedException if the client has not joined
+     */
+    private void checkRate(IClientCallback client, RateLimits.Kind kind) throws OperationRejectedException {
+        PeerRegistry.Peer peer = peers.get(client);
+        if (peer == null) {
+            throw new OperationRejectedException("Join the whiteboard first");
+        }
+        rateLimits.check(peer, kind);
     }
 
     /**
@@ -163,12 +706,29 @@ public class RemoteWhiteBoardServant extends UnicastRemoteObject implements IRem
      * @param clientName full name (including identifier eg JSmith#23) of kicked
      * @throws RemoteException
      */
-    public void kickPeer(String clientName) throws RemoteException {
-        for (IClientCallback c : clientArrayList) {
-           if (c.getFullUsername().equals(clientName.trim()) && c.getId() != 0) {
-               c.notifyKick();
-               notifyAllClients();
-           }
+    public synchronized void kickPeer(String clientName) throws RemoteException {
+        PeerRegistry.Peer peer = peers.get(clientName.trim());
+        if (peer != null && peer.id != 0) {
+            // Kicked client unregisters itself, which updates the peer list
+            peer.dispatcher.enqueue(IClientCallback::notifyKick);
+        }
+    }
+
+    /**
+     * Records where a client's cursor is and what it is dragging out. Relayed
+     * to the other clients at the next tick, unless replaced before then.
+     * @param client callback client object
+     * @param p client's presence
+     * @throws IllegalArgumentException if the shape being dragged out cannot be previewed
+     * @throws RemoteException
+     */
+    public void updatePresence(IClientCallback client, Presence p) throws RemoteException {
+        if (p.getShape() == IShape.ShapeType.TEXT || p.getShape() == IShape.ShapeType.FREEHAND) {
+            throw new IllegalArgumentException("Cannot preview " + p.getShape());
+        }
+        PeerRegistry.Peer peer = peers.get(client);
+        if (peer != null) {
+            presence.update(peer, p);
         }
     }
 
@@ -178,20 +738,30 @@ public class RemoteWhiteBoardServant extends UnicastRemoteObject implements IRem
      * @throws RemoteException
      */
     public void getMessageList(IClientCallback c) throws RemoteException {
-        c.updateMessageBoard(messageArrayList);
+        BoardState.Snapshot snapshot = board.snapshot();
+        reply(c, cb -> sendRecentMessages(cb, snapshot));
     }
 
     /**
-     * Generate human-readable peer list from internal peer list
-     * @return arraylist of full usernames including identifier
+     * Sends the latest chat messages of a snapshot.
+     * @param c callback client object
+     * @param snapshot board snapshot
      * @throws RemoteException
      */
-    private ArrayList<String> makePeerList() throws RemoteException {
-        ArrayList<String> peerList = new ArrayList<>();
-        for (IClientCallback c : clientArrayList) {
-            peerList.add(c.getFullUsername());
-        }
-        return peerList;
+    private void sendRecentMessages(IClientCallback c, BoardState.Snapshot snapshot) throws RemoteException {
+        long firstIndex = Math.max(0, snapshot.messageCount - CHAT_TAIL);
+        c.updateMessageBoard(board.messagePage(snapshot.messageCount, CHAT_TAIL), firstIndex);
+    }
+
+    /**
+     * Gets older chat messages, for a client scrolling back through chat.
+     * @param beforeIndex index of the oldest message the client has
+     * @param count most messages to return
+     * @return messages just before beforeIndex, oldest first
+     * @throws RemoteException
+     */
+    public ArrayList<String> getMessagePage(long beforeIndex, int count) throws RemoteException {
+        return board.messagePage(beforeIndex, Math.min(count, MessageHistory.RECENT_LIMIT));
     }
 
     /**
@@ -200,19 +770,47 @@ public class RemoteWhiteBoardServant extends UnicastRemoteObject implements IRem
      * @throws RemoteException
      */
     public void getPeerList(IClientCallback c) throws RemoteException {
-        c.updatePeerList(makePeerList());
+        ArrayList<String> peerList = peers.getPeerList();
+        reply(c, cb -> cb.updatePeerList(peerList));
+    }
+
+    /**
+     * Answers a client's request: by callback now, or with its next poll if
+     * it polls.
+     * @param c callback client object
+     * @param delivery callback to run
+     * @throws RemoteException
+     */
+    private void reply(IClientCallback c, ClientDispatcher.Delivery delivery) throws RemoteException {
+        PeerRegistry.Peer peer = peers.get(c);
+        if (peer != null) {
+            peer.dispatcher.reply(delivery);
+        } else {
+            delivery.deliver(c);
+        }
+    }
+
+    /**
+     * Queues an operation for all clients.
+     * Called by BoardState with the sequencer held, so operations are queued
+     * in version order.
+     * @param op sequenced operation
+     */
+    private void broadcast(BoardOp op) {
+        for (PeerRegistry.Peer p : peers.peers()) {
+            p.dispatcher.enqueue(op);
+        }
     }
 
     /**
-     * Full updates all clients.
-     * Updates whiteboard, chat, and peer list.
+     * Queues the peer list for all clients.
+     * Only needed when membership changes.
      * @throws RemoteException
      */
-    private void notifyAllClients() throws RemoteException {
-        for (IClientCallback c : clientArrayList) {
-            c.updateWhiteBoard(shapeArrayList);
-            c.updateMessageBoard(messageArrayList);
-            c.updatePeerList(makePeerList());
+    private synchronized void notifyPeerList() {
+        ArrayList<String> peerList = peers.getPeerList();
+        for (PeerRegistry.Peer p : peers.peers()) {
+            p.dispatcher.enqueuePeerList(peerList);
         }
     }
 }
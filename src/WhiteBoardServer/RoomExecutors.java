@@ -0,0 +1,54 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads shared by every room, so an idle room costs no threads of its own.
+ * Work that must stay in order, eg a room's board log or a client's queue,
+ * keeps at most one task queued at a time.
+ */
+class RoomExecutors {
+    // Drains the queues of clients whose callbacks only queue, eg NIO clients
+    final ExecutorService dispatch = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemon("dispatch-pool"));
+    // Heartbeats, presence ticks and join timeouts; tasks only queue work, so never block
+    final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2, daemon("room-timer"));
+    // Tells refused joiners, so a slow joiner never holds up an admin or another room
+    final ExecutorService joinNotifier = Executors.newCachedThreadPool(daemon("join-notify"));
+    // Writes and syncs board logs, one batch per room at a time
+    final ExecutorService boardLog = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemon("board-log"));
+    // Writes board snapshots in the background
+    final ExecutorService snapshots = Executors.newFixedThreadPool(2, daemon("board-snapshot"));
+
+    /**
+     * Stops the threads once every room has closed, letting queued work finish.
+     */
+    void shutdown() {
+        timer.shutdownNow();
+        joinNotifier.shutdown();
+        dispatch.shutdown();
+        boardLog.shutdown();
+        snapshots.shutdown();
+        try {
+            boardLog.awaitTermination(1, TimeUnit.MINUTES);
+            snapshots.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -2,8 +2,6 @@
 
 package WhiteBoardServer;
 
-import remote.IRemoteWhiteBoard;
-
 import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -13,8 +11,8 @@ import java.rmi.server.UnicastRemoteObject;
 
 /**
  * The main class for the WhiteBoardServer package.
- * Takes port number as input and creates a registry, binding
- * to it with name "WhiteBoardServer".
+ * Takes port number as input and creates a registry, binding the lobby
+ * to it with name "WhiteBoardLobby". Clients open their room through it.
  */
 public class Server {
 
@@ -36,25 +34,49 @@ public class Server {
 
         try {
 
-            // Start servant class and registry
-            IRemoteWhiteBoard remoteWhiteBoard = new RemoteWhiteBoardServant();
+            // Tuning options, eg -Dwhiteboard.queueSize=1024 -Dwhiteboard.overflow=disconnect
+            ServerSettings settings = ServerSettings.fromSystemProperties();
+
+            // Bound every callback, so a hung client costs its sender thread a
+            // miss rather than blocking it forever. Must be set before RMI starts
+            if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+                System.setProperty("sun.rmi.transport.tcp.responseTimeout",
+                        Long.toString(settings.callbackTimeoutMillis));
+            }
+
+            // Start lobby and registry. Rooms are opened, recovering their boards
+            // from the data directory, when clients first ask for them
+            Lobby lobby = new Lobby(settings);
             Registry registry = LocateRegistry.createRegistry(port);
-            registry.bind("WhiteBoardServer", remoteWhiteBoard);
+            registry.bind("WhiteBoardLobby", lobby);
+
+            // Clients on the NIO transport share the same rooms
+            NioServer nioServer = null;
+            if (settings.nioPort != 0) {
+                nioServer = new NioServer(lobby, settings.nioPort);
+                nioServer.start();
+                System.out.println("NIO transport on port " + settings.nioPort);
+            }
+            final NioServer nio = nioServer;
             System.out.println("Server ready");
 
             // Clean-up before shutdown by unexporting and unbinding to RMI server
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down server ...");
+                if (nio != null) {
+                    nio.close();
+                }
                 try {
-                    UnicastRemoteObject.unexportObject(remoteWhiteBoard, true);
+                    UnicastRemoteObject.unexportObject(lobby, true);
                 } catch (NoSuchObjectException e) {
                     e.printStackTrace();
                 }
                 try {
-                    registry.unbind("WhiteBoardServer");
+                    registry.unbind("WhiteBoardLobby");
                 } catch (RemoteException | NotBoundException e) {
                     e.printStackTrace();
                 }
+                lobby.close();
             }));
 
         } catch (Exception e) {
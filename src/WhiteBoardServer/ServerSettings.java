@@ -0,0 +1,92 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.IWhiteBoardLobby;
+import remote.TunedSocketFactory;
+
+import java.io.File;
+
+/**
+ * Server tuning options, read from system properties, eg
+ * -Dwhiteboard.queueSize=1024. See readme.txt for the full list.
+ */
+class ServerSettings implements Cloneable {
+    // Most operations queued for one client
+    int queueSize = 1024;
+    // What to do when a client's queue is full
+    OverflowPolicy overflowPolicy = OverflowPolicy.SNAPSHOT;
+    // Board log and chat archive location; each room but the default has a directory in it
+    File dataDir = new File("whiteboard-data");
+    // Board operations between snapshots, which bounds how much is replayed on start-up
+    int snapshotInterval = 10000;
+    // How long a join waits for the admin before it is refused
+    long joinTimeoutMillis = 60_000;
+    // Let everyone in without asking the admin
+    boolean autoApprove = false;
+    // How long a callback may take before it counts as missed
+    long callbackTimeoutMillis = 10_000;
+    // Time between heartbeats to each client
+    long heartbeatMillis = 5_000;
+    // Time between relays of cursors and shapes being dragged out
+    long presenceMillis = 50;
+    // Drawings each client may send per second on average, or 0 for no limit
+    double drawRate = 50;
+    // Drawings each client may send at once after a pause
+    int drawBurst = 200;
+    // Chat messages each client may send per second on average, or 0 for no limit
+    double chatRate = 2;
+    // Chat messages each client may send at once after a pause
+    int chatBurst = 10;
+    // Callbacks missed in a row before a client is evicted
+    int maxMisses = 3;
+    // Sockets the servant is exported with, or null for RMI's own
+    TunedSocketFactory socketFactory = null;
+    // How long a room may go unused before it is closed, until opened again
+    long roomIdleMillis = 300_000;
+    // Port for the NIO transport, served alongside RMI, or 0 for none
+    int nioPort = 0;
+
+    /**
+     * @return settings from system properties, with defaults for any not set
+     */
+    static ServerSettings fromSystemProperties() {
+        ServerSettings s = new ServerSettings();
+        s.queueSize = Integer.getInteger("whiteboard.queueSize", s.queueSize);
+        s.overflowPolicy = OverflowPolicy.parse(System.getProperty("whiteboard.overflow", "snapshot"));
+        s.dataDir = new File(System.getProperty("whiteboard.dataDir", s.dataDir.getPath()));
+        s.snapshotInterval = Integer.getInteger("whiteboard.snapshotInterval", s.snapshotInterval);
+        s.joinTimeoutMillis = Long.getLong("whiteboard.joinTimeout", s.joinTimeoutMillis / 1000) * 1000;
+        s.autoApprove = Boolean.getBoolean("whiteboard.autoApprove");
+        s.callbackTimeoutMillis = Long.getLong("whiteboard.callbackTimeout", s.callbackTimeoutMillis / 1000) * 1000;
+        s.heartbeatMillis = Long.getLong("whiteboard.heartbeat", s.heartbeatMillis / 1000) * 1000;
+        s.presenceMillis = Math.max(1, Long.getLong("whiteboard.presenceTick", s.presenceMillis));
+        s.drawRate = Double.parseDouble(System.getProperty("whiteboard.drawRate", Double.toString(s.drawRate)));
+        s.drawBurst = Integer.getInteger("whiteboard.drawBurst", s.drawBurst);
+        s.chatRate = Double.parseDouble(System.getProperty("whiteboard.chatRate", Double.toString(s.chatRate)));
+        s.chatBurst = Integer.getInteger("whiteboard.chatBurst", s.chatBurst);
+        s.maxMisses = Integer.getInteger("whiteboard.maxMisses", s.maxMisses);
+        s.socketFactory = TunedSocketFactory.fromSystemProperties();
+        s.nioPort = Integer.getInteger("whiteboard.nioPort", s.nioPort);
+        s.roomIdleMillis = Long.getLong("whiteboard.roomIdle", s.roomIdleMillis / 1000) * 1000;
+        return s;
+    }
+
+    /**
+     * @param room room name, already checked to be a valid directory name
+     * @return copy of these settings with the room's own data directory
+     */
+    ServerSettings forRoom(String room) {
+        ServerSettings s;
+        try {
+            s = (ServerSettings) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        // Default room keeps the data directory itself, so a board from before rooms is still found
+        if (!room.equals(IWhiteBoardLobby.DEFAULT_ROOM)) {
+            s.dataDir = new File(dataDir, room);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,169 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardCodec;
+import remote.IShape;
+import remote.Shape;
+
+import java.awt.*;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Append-only board contents stored by column rather than as Shape objects.
+ * Each chunk holds CHUNK_SIZE shapes as parallel primitive columns: one int
+ * array for x, y, width, height, colour and payload end, and a byte array
+ * for the shape type. Payloads, text as UTF-8 and freehand points as
+ * encoded by StrokeCodec, are kept in a shared arena; a shape's payload
+ * runs from the previous shape's payload end to its own. A board of
+ * millions of shapes is then a few hundred arrays instead of millions of
+ * objects for the collector to trace.
+ * One writer appends while any number of readers hold Views. Nothing a View
+ * can see is ever overwritten: chunks are never moved, and the arena is only
+ * appended to, and copied when it grows.
+ * The writer must publish Views safely, eg through a volatile field.
+ */
+class ShapeStore {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final IShape.ShapeType[] TYPES = IShape.ShapeType.values();
+
+    // Column offsets within a chunk's ints
+    private static final int X = 0;
+    private static final int Y = CHUNK_SIZE;
+    private static final int WIDTH = 2 * CHUNK_SIZE;
+    private static final int HEIGHT = 3 * CHUNK_SIZE;
+    private static final int RGB = 4 * CHUNK_SIZE;
+    private static final int DATA_END = 5 * CHUNK_SIZE;
+    private static final int COLUMNS = 6;
+
+    private static final class Chunk {
+        final int[] ints = new int[COLUMNS * CHUNK_SIZE];
+        final byte[] types = new byte[CHUNK_SIZE];
+    }
+
+    private Chunk[] chunks = new Chunk[4];
+    private byte[] data = new byte[0];
+    private int dataSize = 0;
+    private int size = 0;
+
+    /**
+     * Appends a shape. Writer only.
+     * @param s shape to append
+     */
+    void add(Shape s) {
+        byte[] payload = BoardCodec.payload(s);
+        if (payload.length > 0) {
+            if (payload.length > Integer.MAX_VALUE - 8 - dataSize) {
+                throw new IllegalStateException("Board is too large");
+            }
+            if (dataSize + payload.length > data.length) {
+                // Copy, so Views keep the arena they were made with
+                long grown = Math.max(dataSize + payload.length, Math.max(1024L, data.length * 2L));
+                data = Arrays.copyOf(data, (int) Math.min(grown, Integer.MAX_VALUE - 8));
+            }
+            System.arraycopy(payload, 0, data, dataSize, payload.length);
+            dataSize += payload.length;
+        }
+        int c = size >>> CHUNK_BITS;
+        if (c == chunks.length) {
+            chunks = Arrays.copyOf(chunks, c * 2);
+        }
+        if (chunks[c] == null) {
+            chunks[c] = new Chunk();
+        }
+        Chunk chunk = chunks[c];
+        int i = size & (CHUNK_SIZE - 1);
+        chunk.ints[X + i] = s.getX();
+        chunk.ints[Y + i] = s.getY();
+        chunk.ints[WIDTH + i] = s.getWidth();
+        chunk.ints[HEIGHT + i] = s.getHeight();
+        chunk.ints[RGB + i] = s.getColour().getRGB();
+        chunk.ints[DATA_END + i] = dataSize;
+        chunk.types[i] = (byte) s.getShape().ordinal();
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return read-only view of the shapes appended so far
+     */
+    View view() {
+        return new View(chunks, data, size);
+    }
+
+    /**
+     * Fixed-length, read-only view of a ShapeStore.
+     * As a List it builds a Shape for each get(); export() reads the columns
+     * directly, for encoding without building any.
+     */
+    static final class View extends AbstractList<Shape> implements RandomAccess {
+        private final Chunk[] chunks;
+        private final byte[] data;
+        private final int size;
+
+        private View(Chunk[] chunks, byte[] data, int size) {
+            this.chunks = chunks;
+            this.data = data;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Shape get(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(Integer.toString(i));
+            }
+            int[] ints = chunks[i >>> CHUNK_BITS].ints;
+            int j = i & (CHUNK_SIZE - 1);
+            int start = dataStart(i);
+            return BoardCodec.shape(TYPES[chunks[i >>> CHUNK_BITS].types[j]], new Color(ints[RGB + j], true),
+                    ints[X + j], ints[Y + j], ints[WIDTH + j], ints[HEIGHT + j],
+                    data, start, ints[DATA_END + j] - start);
+        }
+
+        /**
+         * Exports a range of shapes for encoding, straight from the columns
+         * and arena, without copying them or building Shapes.
+         * @param from first index, inclusive
+         * @param to last index, exclusive
+         * @return source that writes the range
+         */
+        BoardCodec.Source export(int from, int to) {
+            if (from < 0 || to > size || from > to) {
+                throw new IndexOutOfBoundsException(from + ".." + to);
+            }
+            return out -> {
+                for (int i = from; i < to; i++) {
+                    Chunk chunk = chunks[i >>> CHUNK_BITS];
+                    int j = i & (CHUNK_SIZE - 1);
+                    int start = dataStart(i);
+                    out.write(TYPES[chunk.types[j]], chunk.ints[RGB + j],
+                            chunk.ints[X + j], chunk.ints[Y + j], chunk.ints[WIDTH + j], chunk.ints[HEIGHT + j],
+                            data, start, chunk.ints[DATA_END + j] - start);
+                }
+            };
+        }
+
+        BoardCodec.Source export() {
+            return export(0, size);
+        }
+
+        private int dataStart(int i) {
+            if (i == 0) {
+                return 0;
+            }
+            i--;
+            return chunks[i >>> CHUNK_BITS].ints[DATA_END + (i & (CHUNK_SIZE - 1))];
+        }
+    }
+}
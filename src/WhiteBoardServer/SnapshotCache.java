@@ -0,0 +1,81 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardCodec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoded boards, keyed by the version of their last shape change, so chat
+ * does not make an unchanged board be encoded again.
+ * A board is encoded as a list of chunks, each a compressed BoardCodec
+ * encoding of up to CHUNK_SHAPES shapes, so it can be streamed to a client
+ * one chunk per call and drawn as it arrives. Clients asking for the same
+ * version share one encoding, so a board is encoded once however many
+ * clients need it. Only the newest few versions are kept.
+ */
+class SnapshotCache {
+    // Shapes per chunk; roughly 100KB each before compression
+    static final int CHUNK_SHAPES = 4096;
+    // Versions kept; late joiners almost always want the newest
+    private static final int MAX_ENTRIES = 4;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<List<byte[]>>> encoded = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the encoded board for a snapshot, encoding it if no one has yet.
+     * Concurrent callers for the same board wait for a single encoding,
+     * which runs outside the map so other boards are not held up.
+     * @param snapshot board snapshot
+     * @return encoded chunks of the snapshot, in order; at least one
+     */
+    List<byte[]> get(BoardState.Snapshot snapshot) {
+        CompletableFuture<List<byte[]>> fresh = new CompletableFuture<>();
+        CompletableFuture<List<byte[]>> chunks = encoded.putIfAbsent(snapshot.boardVersion, fresh);
+        if (chunks == null) {
+            chunks = fresh;
+            try {
+                fresh.complete(encode(snapshot));
+            } catch (RuntimeException | Error e) {
+                // Let the next caller try again
+                encoded.remove(snapshot.boardVersion, fresh);
+                fresh.completeExceptionally(e);
+            }
+            evict();
+        }
+        try {
+            return chunks.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static List<byte[]> encode(BoardState.Snapshot snapshot) {
+        int size = snapshot.shapes.size();
+        ArrayList<byte[]> chunks = new ArrayList<>(size / CHUNK_SHAPES + 1);
+        for (int from = 0; from < size || from == 0; from += CHUNK_SHAPES) {
+            int to = Math.min(size, from + CHUNK_SHAPES);
+            chunks.add(BoardCodec.encodeCompressed(snapshot.shapes.export(from, to), to - from));
+        }
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * Drops the oldest versions beyond MAX_ENTRIES.
+     */
+    private void evict() {
+        while (encoded.size() > MAX_ENTRIES) {
+            long oldest = Long.MAX_VALUE;
+            for (Long v : encoded.keySet()) {
+                oldest = Math.min(oldest, v);
+            }
+            encoded.remove(oldest);
+        }
+    }
+}
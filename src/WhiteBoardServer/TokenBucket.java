@@ -0,0 +1,40 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+/**
+ * Allows calls at an average rate, and bursts of up to a fixed number
+ * after a quiet spell. Each call takes a token; tokens are added at the
+ * rate until the bucket holds the burst.
+ */
+class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param ratePerSecond average calls allowed per second
+     * @param burst most calls allowed at once; the bucket starts full
+     */
+    TokenBucket(double ratePerSecond, int burst) {
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Takes a token if there is one.
+     * @return 0 if a token was taken, or else milliseconds until there will be one
+     */
+    synchronized long take() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano / 1e6));
+    }
+}
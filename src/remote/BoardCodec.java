@@ -0,0 +1,489 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary encoding of whole boards, used for .wbs files and for board
+ * snapshots sent to clients.
+ *
+ * Layout: a header of magic "WBSF" and a format version, then records, then
+ * an end record holding the shape count. Colours are interned in a palette:
+ * each new colour is defined once by a colour record and shapes refer to it
+ * by index. Once the palette is full, shapes in new colours are written as
+ * inline colour records, which carry the colour instead. Shape records are
+ * fixed width, with their payload after them, prefixed by its length: UTF-8
+ * for text, StrokeCodec points for freehand strokes, and empty for other
+ * shapes. Records are written and read one at a time, so boards of any size
+ * stream in constant memory.
+ */
+public final class BoardCodec {
+    private static final int MAGIC = 0x57425346; // "WBSF"
+    private static final short FORMAT_VERSION = 1;
+    private static final byte COLOUR_RECORD = 'C';
+    private static final byte SHAPE_RECORD = 'S';
+    private static final byte INLINE_COLOUR_SHAPE_RECORD = 'I';
+    private static final byte END_RECORD = 'E';
+    // Palette indices are stored as unsigned shorts
+    private static final int MAX_COLOURS = 0xffff;
+    // Largest shape payload read, so a corrupt length cannot exhaust memory
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    private BoardCodec() {}
+
+    /**
+     * @param shapes board contents
+     * @return encoded board
+     */
+    public static byte[] encode(List<Shape> shapes) {
+        return encode(of(shapes), shapes.size());
+    }
+
+    /**
+     * @param shapes writes the board contents
+     * @param count number of shapes, to size the buffer
+     * @return encoded board
+     */
+    public static byte[] encode(Source shapes, int count) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 24);
+        try (Writer writer = new Writer(bytes)) {
+            shapes.writeTo(writer);
+        } catch (IOException e) {
+            // Only writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param encoded board from encode()
+     * @return board contents
+     * @throws IOException if encoded is not a valid board
+     */
+    public static ArrayList<Shape> decode(byte[] encoded) throws IOException {
+        try (Reader reader = new Reader(new ByteArrayInputStream(encoded))) {
+            return reader.readAll();
+        }
+    }
+
+    /**
+     * Encodes and deflates shapes, for sending over the network. The fixed
+     * width records are mostly small numbers, so they compress well.
+     * @param shapes board contents
+     * @return compressed encoded board
+     */
+    public static byte[] encodeCompressed(List<Shape> shapes) {
+        return encodeCompressed(of(shapes), shapes.size());
+    }
+
+    /**
+     * @param shapes writes the board contents
+     * @param count number of shapes, to size the buffer
+     * @return compressed encoded board
+     */
+    public static byte[] encodeCompressed(Source shapes, int count) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (Writer writer = new Writer(new DeflaterOutputStream(bytes, deflater))) {
+            shapes.writeTo(writer);
+        } catch (IOException e) {
+            // Only writing to memory
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param compressed board from encodeCompressed()
+     * @return board contents
+     * @throws IOException if compressed is not a valid compressed board
+     */
+    public static ArrayList<Shape> decodeCompressed(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try (Reader reader = new Reader(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressed), inflater)))) {
+            return reader.readAll();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a board to a file, replacing what was there. The board is
+     * written to a temporary file beside it first, so a failed save leaves
+     * the old file as it was.
+     * @param file destination
+     * @param shapes board contents
+     * @throws IOException
+     */
+    public static void write(File file, Iterable<Shape> shapes) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp); Writer writer = new Writer(out)) {
+                for (Shape s : shapes) {
+                    writer.write(s);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Checks whether a file is in this format, rather than an older save.
+     * @param file file to check
+     * @return true if the file starts with this format's header
+     * @throws IOException
+     */
+    public static boolean isBoardFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a board file for reading. Shapes are read through a buffer as
+     * they are asked for, so memory use does not grow with the file.
+     * The file is not memory mapped: a mapping keeps Windows from saving
+     * over the file until it is garbage collected.
+     * @param file board file
+     * @return reader positioned at the first shape; close it when done
+     * @throws IOException if the file is not a board file
+     */
+    public static Reader open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)), 64 * 1024);
+        try {
+            return new Reader(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes one shape on its own, with its colour inline.
+     * @param out destination
+     * @param s shape
+     * @throws IOException
+     */
+    public static void writeShape(DataOutput out, Shape s) throws IOException {
+        out.writeByte(s.getShape().ordinal());
+        out.writeInt(s.getColour().getRGB());
+        out.writeInt(s.getX());
+        out.writeInt(s.getY());
+        out.writeInt(s.getWidth());
+        out.writeInt(s.getHeight());
+        byte[] payload = payload(s);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Reads a shape written by writeShape().
+     * @param in source
+     * @return shape
+     * @throws IOException if in does not hold a shape
+     */
+    public static Shape readShape(DataInput in) throws IOException {
+        int type = in.readByte();
+        if (type < 0 || type >= Reader.TYPES.length) {
+            throw new IOException("Corrupt shape");
+        }
+        Color colour = new Color(in.readInt(), true);
+        int x = in.readInt();
+        int y = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        int payloadLength = in.readInt();
+        if (payloadLength < 0 || payloadLength > MAX_PAYLOAD || payloadLength > WireProtocol.remaining(in)) {
+            throw new IOException("Corrupt shape");
+        }
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        checkPoints(Reader.TYPES[type], payload, "Corrupt shape");
+        return shape(Reader.TYPES[type], colour, x, y, width, height, payload, 0, payload.length);
+    }
+
+    /**
+     * @param s shape
+     * @return what follows the shape's fixed width fields when encoded
+     */
+    public static byte[] payload(Shape s) {
+        switch (s.getShape()) {
+            case TEXT:
+                return s.getText().getBytes(StandardCharsets.UTF_8);
+            case FREEHAND:
+                return s.getPoints();
+            default:
+                return new byte[0];
+        }
+    }
+
+    // Freehand points are checked on the way in, so painting never fails on them
+    private static void checkPoints(IShape.ShapeType type, byte[] payload, String message) throws IOException {
+        if (type == IShape.ShapeType.FREEHAND) {
+            try {
+                StrokeCodec.decode(0, 0, payload);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(message, e);
+            }
+        }
+    }
+
+    /**
+     * Builds a shape from its encoded fields.
+     * @param type shape type
+     * @param colour colour
+     * @param x x
+     * @param y y
+     * @param width width
+     * @param height height
+     * @param payload array holding the payload from payload()
+     * @param offset start of the payload in the array
+     * @param length bytes of payload
+     * @return shape
+     */
+    public static Shape shape(IShape.ShapeType type, Color colour, int x, int y, int width, int height,
+                              byte[] payload, int offset, int length) {
+        switch (type) {
+            case TEXT:
+                return new Shape(x, y, colour, new String(payload, offset, length, StandardCharsets.UTF_8));
+            case FREEHAND:
+                return new Shape(x, y, colour, Arrays.copyOfRange(payload, offset, offset + length));
+            default:
+                return new Shape(x, y, width, height, colour, type);
+        }
+    }
+
+    /**
+     * Board contents that write themselves to a Writer, so a board not held
+     * as Shape objects can be encoded without building them.
+     */
+    public interface Source {
+        /**
+         * @param out writer to append the shapes to
+         * @throws IOException
+         */
+        void writeTo(Writer out) throws IOException;
+    }
+
+    private static Source of(Iterable<Shape> shapes) {
+        return out -> {
+            for (Shape s : shapes) {
+                out.write(s);
+            }
+        };
+    }
+
+    /**
+     * Streaming board writer.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final HashMap<Integer, Integer> palette = new HashMap<>();
+        private long count = 0;
+
+        /**
+         * Writes the header.
+         * @param out destination; closed with the writer
+         * @throws IOException
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(FORMAT_VERSION);
+        }
+
+        /**
+         * Appends a shape, defining its colour first if new.
+         * @param s shape
+         * @throws IOException
+         */
+        public void write(Shape s) throws IOException {
+            byte[] payload = payload(s);
+            write(s.getShape(), s.getColour().getRGB(), s.getX(), s.getY(), s.getWidth(), s.getHeight(),
+                    payload, 0, payload.length);
+        }
+
+        /**
+         * Appends a shape given as its fields, defining its colour first if
+         * new, or giving it inline if the palette is full.
+         * @param type shape type
+         * @param rgb colour, as Color.getRGB()
+         * @param x x
+         * @param y y
+         * @param width width
+         * @param height height
+         * @param payload array holding the shape's payload, as from payload()
+         * @param offset start of the payload in the array
+         * @param length bytes of payload
+         * @throws IOException
+         */
+        public void write(IShape.ShapeType type, int rgb, int x, int y, int width, int height,
+                          byte[] payload, int offset, int length) throws IOException {
+            Integer colour = palette.get(rgb);
+            if (colour == null && palette.size() < MAX_COLOURS) {
+                colour = palette.size();
+                palette.put(rgb, colour);
+                out.writeByte(COLOUR_RECORD);
+                out.writeInt(rgb);
+            }
+            if (colour == null) {
+                out.writeByte(INLINE_COLOUR_SHAPE_RECORD);
+                out.writeByte(type.ordinal());
+                out.writeInt(rgb);
+            } else {
+                out.writeByte(SHAPE_RECORD);
+                out.writeByte(type.ordinal());
+                out.writeShort(colour);
+            }
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(length);
+            out.write(payload, offset, length);
+            count++;
+        }
+
+        /**
+         * Writes the end record and closes the destination.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                out.writeByte(END_RECORD);
+                out.writeLong(count);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Streaming board reader.
+     */
+    public static final class Reader implements Closeable {
+        private static final IShape.ShapeType[] TYPES = IShape.ShapeType.values();
+
+        private final DataInputStream in;
+        private final ArrayList<Color> palette = new ArrayList<>();
+        private long count = 0;
+        private boolean done = false;
+
+        /**
+         * Reads the header.
+         * @param in encoded board, read from where it is; buffer it if reading
+         *           it a few bytes at a time is slow. Closed with the reader
+         * @throws IOException if in is not a board in a known format
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            try {
+                if (this.in.readInt() != MAGIC) {
+                    throw new IOException("Not a whiteboard");
+                }
+                if (this.in.readShort() != FORMAT_VERSION) {
+                    throw new IOException("Unsupported whiteboard format");
+                }
+            } catch (EOFException e) {
+                throw new IOException("Not a whiteboard", e);
+            }
+        }
+
+        /**
+         * @return next shape, or null at the end of the board
+         * @throws IOException if the board is truncated or corrupt
+         */
+        public Shape next() throws IOException {
+            try {
+                while (!done) {
+                    byte record = in.readByte();
+                    if (record == COLOUR_RECORD) {
+                        palette.add(new Color(in.readInt(), true));
+                    } else if (record == SHAPE_RECORD) {
+                        count++;
+                        int type = in.readByte();
+                        return readShape(type, palette.get(in.readUnsignedShort()));
+                    } else if (record == INLINE_COLOUR_SHAPE_RECORD) {
+                        count++;
+                        int type = in.readByte();
+                        return readShape(type, new Color(in.readInt(), true));
+                    } else if (record == END_RECORD) {
+                        if (in.readLong() != count) {
+                            throw new IOException("Whiteboard is missing shapes");
+                        }
+                        done = true;
+                    } else {
+                        throw new IOException("Corrupt whiteboard");
+                    }
+                }
+                return null;
+            } catch (EOFException | IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt whiteboard", e);
+            }
+        }
+
+        private Shape readShape(int type, Color colour) throws IOException {
+            int x = in.readInt();
+            int y = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+            int payloadLength = in.readInt();
+            if (type < 0 || type >= TYPES.length || payloadLength < 0 || payloadLength > MAX_PAYLOAD) {
+                throw new IOException("Corrupt whiteboard");
+            }
+            byte[] payload = new byte[payloadLength];
+            in.readFully(payload);
+            checkPoints(TYPES[type], payload, "Corrupt whiteboard");
+            return shape(TYPES[type], colour, x, y, width, height, payload, 0, payload.length);
+        }
+
+        /**
+         * @return all remaining shapes
+         * @throws IOException if the board is truncated or corrupt
+         */
+        public ArrayList<Shape> readAll() throws IOException {
+            ArrayList<Shape> shapes = new ArrayList<>();
+            Shape s;
+            while ((s = next()) != null) {
+                shapes.add(s);
+            }
+            return shapes;
+        }
+
+        /**
+         * Closes the source.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.Serializable;
+
+/**
+ * A single sequenced change to the whiteboard.
+ * Every operation carries the board version it produced, so clients can
+ * apply operations in order and spot any that went missing.
+ */
+public final class BoardOp implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {SHAPE, CLEAR, REPLACE, MESSAGE}
+
+    private final long version;
+    private final Type type;
+    private final Shape shape;
+    private final String message;
+    private final long opId;
+
+    private BoardOp(long version, Type type, Shape shape, String message, long opId) {
+        this.version = version;
+        this.type = type;
+        this.shape = shape;
+        this.message = message;
+        this.opId = opId;
+    }
+
+    /**
+     * @param version board version
+     * @param shape shape added
+     * @param opId id the drawing client gave the shape, or 0
+     * @return shape operation
+     */
+    public static BoardOp shape(long version, Shape shape, long opId) {
+        return new BoardOp(version, Type.SHAPE, shape, null, opId);
+    }
+
+    public static BoardOp shape(long version, Shape shape) {
+        return shape(version, shape, 0);
+    }
+
+    public static BoardOp clear(long version) {
+        return new BoardOp(version, Type.CLEAR, null, null, 0);
+    }
+
+    /**
+     * Marks the board being replaced wholesale. Carries no shapes: clients
+     * are sent the new board as a snapshot instead of this operation.
+     * @param version board version
+     * @return replace operation
+     */
+    public static BoardOp replace(long version) {
+        return new BoardOp(version, Type.REPLACE, null, null, 0);
+    }
+
+    public static BoardOp message(long version, String message) {
+        return new BoardOp(version, Type.MESSAGE, null, message, 0);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Shape added by a SHAPE operation. */
+    public Shape getShape() {
+        return shape;
+    }
+
+    /** Chat line added by a MESSAGE operation. */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Id the drawing client gave a SHAPE operation, so it can match the
+     * shape to the one it is already showing. Not kept in the board log.
+     * @return op id, or 0 if none was given
+     */
+    public long getOpId() {
+        return opId;
+    }
+}
@@ -0,0 +1,151 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+
+/**
+ * A callback recorded for a client that polls for updates instead of being
+ * called back. Each update stands for one IClientCallback call and is
+ * replayed against the client's own callback object once fetched.
+ */
+public final class ClientUpdate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {BOARD, OPS, MESSAGES, PEER_LIST, PRESENCE, JOIN_REQUESTS, JOINED, FAILURE, KICK, KILL}
+
+    private final Type type;
+    private byte[] chunk;
+    private long version;
+    private boolean first;
+    private boolean last;
+    private ArrayList<BoardOp> ops;
+    private ArrayList<String> lines;
+    private long firstIndex;
+    private ArrayList<JoinRequest> requests;
+    private ArrayList<Presence> presences;
+    private JoinInfo info;
+
+    private ClientUpdate(Type type) {
+        this.type = type;
+    }
+
+    public static ClientUpdate board(byte[] chunk, long version, boolean first, boolean last) {
+        ClientUpdate u = new ClientUpdate(Type.BOARD);
+        u.chunk = chunk;
+        u.version = version;
+        u.first = first;
+        u.last = last;
+        return u;
+    }
+
+    public static ClientUpdate ops(ArrayList<BoardOp> ops) {
+        ClientUpdate u = new ClientUpdate(Type.OPS);
+        u.ops = ops;
+        return u;
+    }
+
+    public static ClientUpdate messages(ArrayList<String> messageList, long firstIndex) {
+        ClientUpdate u = new ClientUpdate(Type.MESSAGES);
+        u.lines = messageList;
+        u.firstIndex = firstIndex;
+        return u;
+    }
+
+    public static ClientUpdate peerList(ArrayList<String> peerList) {
+        ClientUpdate u = new ClientUpdate(Type.PEER_LIST);
+        u.lines = peerList;
+        return u;
+    }
+
+    public static ClientUpdate presence(ArrayList<Presence> presences) {
+        ClientUpdate u = new ClientUpdate(Type.PRESENCE);
+        u.presences = presences;
+        return u;
+    }
+
+    public static ClientUpdate joinRequests(ArrayList<JoinRequest> requests) {
+        ClientUpdate u = new ClientUpdate(Type.JOIN_REQUESTS);
+        u.requests = requests;
+        return u;
+    }
+
+    public static ClientUpdate joined(JoinInfo info) {
+        ClientUpdate u = new ClientUpdate(Type.JOINED);
+        u.info = info;
+        return u;
+    }
+
+    /**
+     * @param type FAILURE, KICK or KILL
+     * @return update carrying nothing but its type
+     */
+    public static ClientUpdate notice(Type type) {
+        return new ClientUpdate(type);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Board version of a BOARD update, or of the last operation of an OPS update. */
+    public long getVersion() {
+        if (type == Type.OPS) {
+            return ops.isEmpty() ? -1 : ops.get(ops.size() - 1).getVersion();
+        }
+        return type == Type.BOARD ? version : -1;
+    }
+
+    /** Rough size in bytes, for keeping replies to a poll small. */
+    public int getSize() {
+        if (type == Type.BOARD) {
+            return chunk.length;
+        }
+        if (type == Type.PRESENCE) {
+            return presences.size() * 64;
+        }
+        return type == Type.OPS ? ops.size() * 64 : 64;
+    }
+
+    /**
+     * Makes the callback this update stands for.
+     * @param c callback client object
+     * @throws RemoteException
+     */
+    public void applyTo(IClientCallback c) throws RemoteException {
+        switch (type) {
+            case BOARD:
+                c.updateWhiteBoard(chunk, version, first, last);
+                break;
+            case OPS:
+                c.applyOps(ops);
+                break;
+            case MESSAGES:
+                c.updateMessageBoard(lines, firstIndex);
+                break;
+            case PEER_LIST:
+                c.updatePeerList(lines);
+                break;
+            case PRESENCE:
+                c.updatePresence(presences);
+                break;
+            case JOIN_REQUESTS:
+                c.updateJoinRequests(requests);
+                break;
+            case JOINED:
+                c.notifyJoined(info);
+                break;
+            case FAILURE:
+                c.notifyFailure();
+                break;
+            case KICK:
+                c.notifyKick();
+                break;
+            case KILL:
+                c.notifyKill();
+                break;
+        }
+    }
+}
@@ -14,11 +14,15 @@ public interface IClientCallback extends Remote {
     String getFullUsername() throws RemoteException;
     void setId(Integer id) throws RemoteException;
     Integer getId() throws RemoteException;
-    void updateWhiteBoard(ArrayList<IShape> shapeList) throws RemoteException;
-    void updateMessageBoard(ArrayList<String> messageList) throws RemoteException;
+    void updateWhiteBoard(byte[] encodedShapes, long version, boolean first, boolean last) throws RemoteException;
+    void applyOps(ArrayList<BoardOp> ops) throws RemoteException;
+    void updateMessageBoard(ArrayList<String> messageList, long firstIndex) throws RemoteException;
     void updatePeerList(ArrayList<String> peerList) throws RemoteException;
-    boolean notifyNewPeer(IClientCallback client) throws RemoteException;
+    void updatePresence(ArrayList<Presence> presences) throws RemoteException;
+    void updateJoinRequests(ArrayList<JoinRequest> requests) throws RemoteException;
+    void notifyJoined(JoinInfo info) throws RemoteException;
     void notifyFailure() throws RemoteException;
     void notifyKick() throws RemoteException;
     void notifyKill() throws RemoteException;
+    void heartbeat() throws RemoteException;
 }
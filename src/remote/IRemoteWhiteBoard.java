@@ -11,15 +11,25 @@ import java.util.ArrayList;
  * RMI interface for server whiteboard object.
  */
 public interface IRemoteWhiteBoard extends Remote {
-    void register(IClientCallback client) throws RemoteException;
+    JoinInfo join(IClientCallback client, String username, boolean pull) throws RemoteException;
+    ArrayList<ClientUpdate> getUpdatesSince(IClientCallback client, long version, long maxWaitMillis) throws RemoteException;
+    void answerJoinRequests(IClientCallback admin, ArrayList<Long> requestIds, boolean approve) throws RemoteException;
+    void setAutoApprove(IClientCallback admin, boolean autoApprove) throws RemoteException;
     void unregister(IClientCallback client) throws RemoteException;
-    void drawShape(int x1, int y1, int x2, int y2, Color colour, IShape.ShapeType shape) throws RemoteException;
-    void drawText(int x1, int y1, Color colour, String text) throws RemoteException;
+    long drawShape(IClientCallback client, long opId, int x1, int y1, int x2, int y2, Color colour, IShape.ShapeType shape) throws RemoteException, OperationRejectedException;
+    long drawText(IClientCallback client, long opId, int x1, int y1, Color colour, String text) throws RemoteException, OperationRejectedException;
+    long drawStroke(IClientCallback client, long opId, int x, int y, Color colour, byte[] points) throws RemoteException, OperationRejectedException;
     void getShapeList(IClientCallback client) throws RemoteException;
+    void resync(IClientCallback client, long fromVersion) throws RemoteException;
     void clearAll() throws RemoteException;
-    void replaceAll(ArrayList<IShape> shapeList) throws RemoteException;
-    void sendMessage(String message, IClientCallback client) throws RemoteException;
+    long beginImport(IClientCallback admin) throws RemoteException;
+    void appendImportChunk(IClientCallback admin, long importId, byte[] encodedShapes) throws RemoteException;
+    void commitImport(IClientCallback admin, long importId) throws RemoteException;
+    void abortImport(IClientCallback admin, long importId) throws RemoteException;
+    void sendMessage(String message, IClientCallback client) throws RemoteException, RateLimitedException;
     void getMessageList(IClientCallback client) throws RemoteException;
+    ArrayList<String> getMessagePage(long beforeIndex, int count) throws RemoteException;
     void getPeerList(IClientCallback client) throws RemoteException;
     void kickPeer(String clientName) throws RemoteException;
+    void updatePresence(IClientCallback client, Presence presence) throws RemoteException;
 }
@@ -7,10 +7,13 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 /**
- * RMI interface for Shape object.
+ * Interface for Shape object.
+ * Still extends Remote so that shape stubs written into old .wbs files can be
+ * read back; shapes are now sent by value as {@link Shape}.
  */
 public interface IShape extends Remote {
-    enum ShapeType {CIRCLE, OVAL, RECTANGLE, LINE, TEXT};
+    // New types go last, as ordinals are saved in board files
+    enum ShapeType {CIRCLE, OVAL, RECTANGLE, LINE, TEXT, FREEHAND};
     int getX() throws RemoteException;
     int getY() throws RemoteException;
     int getWidth() throws RemoteException;
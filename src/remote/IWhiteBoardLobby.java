@@ -0,0 +1,17 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * RMI interface for the server's lobby, through which clients reach one of
+ * the whiteboards it hosts.
+ */
+public interface IWhiteBoardLobby extends Remote {
+    // Room clients join when they name none
+    String DEFAULT_ROOM = "default";
+
+    IRemoteWhiteBoard openRoom(String room) throws RemoteException;
+}
@@ -0,0 +1,60 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Everything a client needs on joining, returned in one call.
+ * The board itself follows as a streamed snapshot at boardVersion.
+ */
+public final class JoinInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+    private final boolean admin;
+    private final long boardVersion;
+    private final ArrayList<String> peerList;
+    private final ArrayList<String> chatTail;
+    private final long chatFirstIndex;
+
+    public JoinInfo(int id, boolean admin, long boardVersion, ArrayList<String> peerList,
+                    ArrayList<String> chatTail, long chatFirstIndex) {
+        this.id = id;
+        this.admin = admin;
+        this.boardVersion = boardVersion;
+        this.peerList = peerList;
+        this.chatTail = chatTail;
+        this.chatFirstIndex = chatFirstIndex;
+    }
+
+    /** Identifier given to the client, shown after its username. */
+    public int getId() {
+        return id;
+    }
+
+    /** Whether the client manages the whiteboard. */
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    /** Version of the board snapshot that follows. */
+    public long getBoardVersion() {
+        return boardVersion;
+    }
+
+    public ArrayList<String> getPeerList() {
+        return peerList;
+    }
+
+    /** Latest chat messages at boardVersion, oldest first. */
+    public ArrayList<String> getChatTail() {
+        return chatTail;
+    }
+
+    /** History index of the first message in the chat tail. */
+    public long getChatFirstIndex() {
+        return chatFirstIndex;
+    }
+}
@@ -0,0 +1,34 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.Serializable;
+
+/**
+ * A client waiting for the admin to let it in.
+ */
+public final class JoinRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final String username;
+
+    public JoinRequest(long id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    /** Identifies the request when approving or denying it. */
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
@@ -0,0 +1,15 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+/**
+ * Thrown when the server refuses a drawing operation, so it never reaches
+ * the board. A client showing the shape early should take it back.
+ */
+public class OperationRejectedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public OperationRejectedException(String message) {
+        super(message);
+    }
+}
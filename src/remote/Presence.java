@@ -0,0 +1,87 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.Serializable;
+
+/**
+ * Where a peer's cursor is and what it is dragging out, if anything.
+ * Sent apart from board operations: only the latest from each peer matters,
+ * so any may be dropped or replaced by a newer one, and none is kept.
+ */
+public final class Presence implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String peer;
+    private final boolean onBoard;
+    private final int x;
+    private final int y;
+    private final IShape.ShapeType shape;
+    private final int anchorX;
+    private final int anchorY;
+    private final int rgb;
+
+    /**
+     * @param peer full username of the peer, set by the server; null when sent by a client
+     * @param onBoard whether the cursor is over the board
+     * @param x cursor x coord
+     * @param y cursor y coord
+     * @param shape shape being dragged out, or null
+     * @param anchorX x coord the shape was started at
+     * @param anchorY y coord the shape was started at
+     * @param rgb colour of the shape
+     */
+    public Presence(String peer, boolean onBoard, int x, int y, IShape.ShapeType shape, int anchorX, int anchorY,
+                    int rgb) {
+        this.peer = peer;
+        this.onBoard = onBoard;
+        this.x = x;
+        this.y = y;
+        this.shape = shape;
+        this.anchorX = anchorX;
+        this.anchorY = anchorY;
+        this.rgb = rgb;
+    }
+
+    /**
+     * @param peer full username of the peer it came from
+     * @return copy stamped with the peer
+     */
+    public Presence from(String peer) {
+        return new Presence(peer, onBoard, x, y, shape, anchorX, anchorY, rgb);
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    /** Whether the cursor is over the board; if not, nothing is shown for the peer. */
+    public boolean isOnBoard() {
+        return onBoard;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /** Shape being dragged out, from the anchor to the cursor, or null. Never text or freehand. */
+    public IShape.ShapeType getShape() {
+        return shape;
+    }
+
+    public int getAnchorX() {
+        return anchorX;
+    }
+
+    public int getAnchorY() {
+        return anchorY;
+    }
+
+    public int getRGB() {
+        return rgb;
+    }
+}
@@ -0,0 +1,25 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+/**
+ * Thrown when a client calls faster than the server allows, so the call is
+ * refused. Unlike other refusals the same call will succeed later: the
+ * client should wait at least the time given, sending less often or in
+ * larger batches, then try again.
+ */
+public class RateLimitedException extends OperationRejectedException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public RateLimitedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /** Time until the call would be allowed, if no other calls are made. */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
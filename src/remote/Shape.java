@@ -0,0 +1,117 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.awt.*;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+/**
+ * Shape object that defines whiteboard drawn objects.
+ * Also can be a text object, or a freehand stroke whose points are held
+ * encoded by StrokeCodec.
+ * Immutable and passed by value over RMI, so reading a shape never makes a
+ * remote call.
+ */
+public final class Shape implements IShape, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final byte[] NO_POINTS = new byte[0];
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final Color colour;
+    private final String text;
+    private final ShapeType shape;
+    // Freehand only; null for shapes saved before freehand existed
+    private final byte[] points;
+
+    public Shape(int x, int y, int width, int height, Color colour, ShapeType shape) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.colour = colour;
+        this.text = "";
+        this.shape = shape;
+        this.points = null;
+    }
+
+    public Shape(int x, int y, Color colour, String text) {
+        this.x = x;
+        this.y = y;
+        this.width = 0;
+        this.height = 0;
+        this.colour = colour;
+        this.text = text;
+        this.shape = ShapeType.TEXT;
+        this.points = null;
+    }
+
+    /**
+     * Freehand stroke.
+     * @param x first point's x
+     * @param y first point's y
+     * @param colour stroke colour
+     * @param points later points, encoded by StrokeCodec; not modified after
+     */
+    public Shape(int x, int y, Color colour, byte[] points) {
+        this.x = x;
+        this.y = y;
+        this.width = 0;
+        this.height = 0;
+        this.colour = colour;
+        this.text = "";
+        this.shape = ShapeType.FREEHAND;
+        this.points = points;
+    }
+
+    /**
+     * Copies a shape into a local value.
+     * Used to convert remote shape stubs found in old .wbs files, which only
+     * works while the server that created them is still running.
+     * @param s shape, possibly a remote stub
+     * @return local copy of the shape
+     * @throws RemoteException
+     */
+    public static Shape copyOf(IShape s) throws RemoteException {
+        if (s instanceof Shape) {
+            return (Shape) s;
+        }
+        if (s.getShape() == ShapeType.TEXT) {
+            return new Shape(s.getX(), s.getY(), s.getColour(), s.getText());
+        }
+        return new Shape(s.getX(), s.getY(), s.getWidth(), s.getHeight(), s.getColour(), s.getShape());
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Color getColour() {return colour;}
+
+    public String getText() {return text;}
+
+    public ShapeType getShape() {return shape;}
+
+    /**
+     * @return a freehand stroke's later points, encoded by StrokeCodec and
+     *         not to be modified; empty for other shapes
+     */
+    public byte[] getPoints() {
+        return points == null ? NO_POINTS : points;
+    }
+}
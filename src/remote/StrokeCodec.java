@@ -0,0 +1,105 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a freehand stroke's points.
+ * The first point is the shape's x and y. Each later point is stored as its
+ * offset from the one before, zigzagged so small negative steps stay small,
+ * then written as a varint: a point a few pixels from the last takes two
+ * bytes rather than eight.
+ */
+public final class StrokeCodec {
+    // Most points one stroke shape may hold
+    public static final int MAX_POINTS = 4096;
+
+    private StrokeCodec() {}
+
+    /**
+     * @param xy points as x, y pairs
+     * @param count number of points, at least one
+     * @return offsets of the second point onwards, for a shape at the first
+     */
+    public static byte[] encode(int[] xy, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * 2);
+        for (int i = 1; i < count; i++) {
+            writeVarint(out, zigzag(xy[2 * i] - xy[2 * i - 2]));
+            writeVarint(out, zigzag(xy[2 * i + 1] - xy[2 * i - 1]));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param x first point's x
+     * @param y first point's y
+     * @param deltas array holding offsets from encode()
+     * @param offset start of the offsets
+     * @param length bytes of offsets
+     * @return all points as x, y pairs, starting with the first
+     * @throws IllegalArgumentException if the offsets are corrupt or hold too many points
+     */
+    public static int[] decode(int x, int y, byte[] deltas, int offset, int length) {
+        int[] xy = new int[2 * Math.min(MAX_POINTS, length / 2 + 1)];
+        xy[0] = x;
+        xy[1] = y;
+        int count = 1;
+        int[] pos = {offset};
+        int end = offset + length;
+        while (pos[0] < end) {
+            if (count == MAX_POINTS) {
+                throw new IllegalArgumentException("Stroke has more than " + MAX_POINTS + " points");
+            }
+            int dx = unzigzag(readVarint(deltas, pos, end));
+            int dy = unzigzag(readVarint(deltas, pos, end));
+            xy[2 * count] = xy[2 * count - 2] + dx;
+            xy[2 * count + 1] = xy[2 * count - 1] + dy;
+            count++;
+        }
+        return count * 2 == xy.length ? xy : Arrays.copyOf(xy, count * 2);
+    }
+
+    /**
+     * @param x first point's x
+     * @param y first point's y
+     * @param deltas offsets from encode()
+     * @return all points as x, y pairs, starting with the first
+     * @throws IllegalArgumentException if the offsets are corrupt or hold too many points
+     */
+    public static int[] decode(int x, int y, byte[] deltas) {
+        return decode(x, y, deltas, 0, deltas.length);
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    private static int readVarint(byte[] in, int[] pos, int end) {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] == end) {
+                throw new IllegalArgumentException("Corrupt stroke");
+            }
+            byte b = in[pos[0]++];
+            n |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt stroke");
+    }
+}
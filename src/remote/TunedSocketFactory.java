@@ -0,0 +1,157 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Socket factory for exporting the server and client callback objects.
+ * Turns on TCP_NODELAY, so small calls such as single shapes are not held
+ * back waiting for an acknowledgement, and uses larger socket buffers for
+ * whole boards. Can also deflate everything sent, which pays off on slow
+ * links. Boards are already compressed, so mostly operations and chat shrink.
+ * Factories with the same settings are equal, so RMI shares connections
+ * between objects exported with them.
+ * The same instance serves as the client factory, which is sent to the
+ * other side, and the server factory.
+ */
+public final class TunedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean compress;
+    private final int bufferSize;
+
+    /**
+     * @param compress whether to deflate everything sent
+     * @param bufferSize socket send and receive buffer size in bytes
+     */
+    public TunedSocketFactory(boolean compress, int bufferSize) {
+        this.compress = compress;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Reads -Dwhiteboard.transport, one of "default", "tuned" or
+     * "compressed", and -Dwhiteboard.socketBuffer in bytes. A client on
+     * the "nio" transport exports nothing, so gets RMI's own sockets.
+     * @return factory to export with, or null for RMI's own sockets
+     */
+    public static TunedSocketFactory fromSystemProperties() {
+        String transport = System.getProperty("whiteboard.transport", "default");
+        int bufferSize = Integer.getInteger("whiteboard.socketBuffer", 256 * 1024);
+        switch (transport.toLowerCase()) {
+            case "default":
+            case "nio":
+                return null;
+            case "tuned":
+                return new TunedSocketFactory(false, bufferSize);
+            case "compressed":
+                return new TunedSocketFactory(true, bufferSize);
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+    }
+
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = newSocket();
+        // Set before connecting so the larger window is agreed
+        socket.setReceiveBufferSize(bufferSize);
+        socket.connect(new InetSocketAddress(host, port));
+        configure(socket);
+        return socket;
+    }
+
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket serverSocket = new TunedServerSocket();
+        // Accepted sockets take their receive buffer from here
+        serverSocket.setReceiveBufferSize(bufferSize);
+        serverSocket.bind(new InetSocketAddress(port));
+        return serverSocket;
+    }
+
+    private Socket newSocket() {
+        return compress ? new CompressedSocket(bufferSize) : new Socket();
+    }
+
+    private void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSendBufferSize(bufferSize);
+    }
+
+    /**
+     * Server socket that hands out sockets made by the factory.
+     */
+    private final class TunedServerSocket extends ServerSocket {
+        TunedServerSocket() throws IOException {}
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = newSocket();
+            implAccept(socket);
+            configure(socket);
+            return socket;
+        }
+    }
+
+    /**
+     * Socket whose streams deflate what is written and inflate what is read.
+     * RMI flushes after each call, which ends the deflate block, so a call is
+     * never held back waiting for more data.
+     */
+    private static final class CompressedSocket extends Socket {
+        private final int bufferSize;
+        private InputStream in;
+        private OutputStream out;
+
+        CompressedSocket(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new InflaterInputStream(super.getInputStream(), new Inflater(), bufferSize);
+            }
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new DeflaterOutputStream(new BufferedOutputStream(super.getOutputStream(), bufferSize),
+                        new Deflater(Deflater.BEST_SPEED), bufferSize, true);
+            }
+            return out;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TunedSocketFactory that = (TunedSocketFactory) o;
+        return compress == that.compress && bufferSize == that.bufferSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Boolean.hashCode(compress) + bufferSize;
+    }
+}
@@ -0,0 +1,385 @@
+// Benjamin Yi - 1152795
+
+package remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol for the NIO transport, an alternative to RMI that carries
+ * the same IRemoteWhiteBoard and IClientCallback calls over one connection
+ * per client.
+ * Every frame is a big-endian int length, then the opcode byte, a request
+ * id and the call's arguments. The length counts everything after itself.
+ * The client sends requests, each with a new request id; the server answers
+ * each with RESULT or ERROR carrying the same id. Callbacks from the server
+ * have request id 0 and are not answered. The connection identifies the
+ * client, so callback object arguments are not sent.
+ */
+public final class WireProtocol {
+    // Largest frame accepted; a board upload chunk is well under this
+    public static final int MAX_FRAME = 16 * 1024 * 1024;
+    // Length prefix, opcode and request id
+    public static final int HEADER = 9;
+
+    // Client to server
+    public static final byte JOIN = 1;
+    public static final byte ANSWER_JOIN_REQUESTS = 2;
+    public static final byte SET_AUTO_APPROVE = 3;
+    public static final byte UNREGISTER = 4;
+    public static final byte DRAW_SHAPE = 5;
+    public static final byte DRAW_TEXT = 6;
+    public static final byte GET_SHAPE_LIST = 7;
+    public static final byte RESYNC = 8;
+    public static final byte CLEAR_ALL = 9;
+    public static final byte BEGIN_IMPORT = 10;
+    public static final byte APPEND_IMPORT_CHUNK = 11;
+    public static final byte COMMIT_IMPORT = 12;
+    public static final byte ABORT_IMPORT = 13;
+    public static final byte SEND_MESSAGE = 14;
+    public static final byte GET_MESSAGE_LIST = 15;
+    public static final byte GET_MESSAGE_PAGE = 16;
+    public static final byte GET_PEER_LIST = 17;
+    public static final byte KICK_PEER = 18;
+    public static final byte DRAW_STROKE = 19;
+    public static final byte SEND_PRESENCE = 20;
+
+    // Server to client
+    public static final byte RESULT = 64;
+    public static final byte ERROR = 65;
+    public static final byte UPDATE_WHITEBOARD = 66;
+    public static final byte APPLY_OPS = 67;
+    public static final byte UPDATE_MESSAGE_BOARD = 68;
+    public static final byte UPDATE_PEER_LIST = 69;
+    public static final byte UPDATE_JOIN_REQUESTS = 70;
+    public static final byte NOTIFY_JOINED = 71;
+    public static final byte NOTIFY_FAILURE = 72;
+    public static final byte NOTIFY_KICK = 73;
+    public static final byte NOTIFY_KILL = 74;
+    public static final byte HEARTBEAT = 75;
+    public static final byte UPDATE_PRESENCE = 76;
+
+    // Kinds of ERROR, so the caller can throw what the server threw
+    public static final byte SECURITY = 1;
+    public static final byte ILLEGAL_ARGUMENT = 2;
+    public static final byte ILLEGAL_STATE = 3;
+    public static final byte REMOTE = 4;
+    public static final byte REJECTED = 5;
+    // Followed by the milliseconds to wait
+    public static final byte RATE_LIMITED = 6;
+
+    private WireProtocol() {}
+
+    /**
+     * Builds one frame. Write the arguments, then take the frame.
+     */
+    public static final class FrameWriter extends DataOutputStream {
+
+        /**
+         * @param opcode call or reply
+         * @param requestId request id, or 0 for a callback
+         */
+        public FrameWriter(byte opcode, int requestId) {
+            super(new Buffer());
+            try {
+                writeInt(0);
+                writeByte(opcode);
+                writeInt(requestId);
+            } catch (IOException e) {
+                throw new AssertionError(e); // Writes to memory
+            }
+        }
+
+        /**
+         * @return finished frame, ready to write to a channel
+         */
+        public ByteBuffer toFrame() {
+            Buffer buffer = (Buffer) out;
+            ByteBuffer frame = ByteBuffer.wrap(buffer.array(), 0, buffer.size());
+            frame.putInt(0, buffer.size() - 4);
+            return frame;
+        }
+
+        // Hands over its array rather than a copy
+        private static final class Buffer extends ByteArrayOutputStream {
+            Buffer() {
+                super(64);
+            }
+
+            byte[] array() {
+                return buf;
+            }
+        }
+    }
+
+    /**
+     * Reads one frame's opcode, request id and arguments.
+     */
+    public static final class FrameReader extends DataInputStream {
+        public final byte opcode;
+        public final int requestId;
+
+        /**
+         * @param frame frame without its length prefix
+         * @param length bytes in the frame
+         */
+        public FrameReader(byte[] frame, int length) throws IOException {
+            super(new ByteArrayInputStream(frame, 0, length));
+            opcode = readByte();
+            requestId = readInt();
+        }
+
+        /**
+         * @return bytes of the frame not yet read
+         */
+        public int remaining() {
+            try {
+                return available();
+            } catch (IOException impossible) {
+                throw new AssertionError(impossible); // Reads from memory
+            }
+        }
+    }
+
+    // Strings are length-prefixed UTF-8, as chat lines can pass writeUTF's 64KB limit
+
+    public static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    public static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > remaining(in)) {
+            throw new IOException("Bad length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    public static ArrayList<String> readStrings(DataInput in) throws IOException {
+        int n = readCount(in, 4);
+        ArrayList<String> strings = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    public static void writeLongs(DataOutput out, List<Long> longs) throws IOException {
+        out.writeInt(longs.size());
+        for (long l : longs) {
+            out.writeLong(l);
+        }
+    }
+
+    public static ArrayList<Long> readLongs(DataInput in) throws IOException {
+        int n = readCount(in, 8);
+        ArrayList<Long> longs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            longs.add(in.readLong());
+        }
+        return longs;
+    }
+
+    public static void writeOps(DataOutput out, List<BoardOp> ops) throws IOException {
+        out.writeInt(ops.size());
+        for (BoardOp op : ops) {
+            out.writeLong(op.getVersion());
+            out.writeByte(op.getType().ordinal());
+            switch (op.getType()) {
+                case SHAPE:
+                    out.writeLong(op.getOpId());
+                    BoardCodec.writeShape(out, op.getShape());
+                    break;
+                case MESSAGE:
+                    writeString(out, op.getMessage());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public static ArrayList<BoardOp> readOps(DataInput in) throws IOException {
+        int n = readCount(in, 9);
+        ArrayList<BoardOp> ops = new ArrayList<>(n);
+        BoardOp.Type[] types = BoardOp.Type.values();
+        for (int i = 0; i < n; i++) {
+            long version = in.readLong();
+            int type = in.readUnsignedByte();
+            if (type >= types.length) {
+                throw new IOException("Bad operation type: " + type);
+            }
+            switch (types[type]) {
+                case SHAPE: {
+                    long opId = in.readLong();
+                    ops.add(BoardOp.shape(version, BoardCodec.readShape(in), opId));
+                    break;
+                }
+                case CLEAR:
+                    ops.add(BoardOp.clear(version));
+                    break;
+                case REPLACE:
+                    ops.add(BoardOp.replace(version));
+                    break;
+                case MESSAGE:
+                    ops.add(BoardOp.message(version, readString(in)));
+                    break;
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Writes a presence without the peer it came from, which the server
+     * knows from the connection.
+     * @param out frame
+     * @param p presence
+     * @throws IOException
+     */
+    public static void writePresence(DataOutput out, Presence p) throws IOException {
+        out.writeBoolean(p.isOnBoard());
+        out.writeInt(p.getX());
+        out.writeInt(p.getY());
+        out.writeByte(p.getShape() == null ? -1 : p.getShape().ordinal());
+        out.writeInt(p.getAnchorX());
+        out.writeInt(p.getAnchorY());
+        out.writeInt(p.getRGB());
+    }
+
+    /**
+     * @param in frame
+     * @param peer full username of the peer it came from, or null
+     * @return presence
+     * @throws IOException
+     */
+    public static Presence readPresence(DataInput in, String peer) throws IOException {
+        boolean onBoard = in.readBoolean();
+        int x = in.readInt();
+        int y = in.readInt();
+        byte shape = in.readByte();
+        IShape.ShapeType[] types = IShape.ShapeType.values();
+        if (shape < -1 || shape >= types.length) {
+            throw new IOException("Bad shape type: " + shape);
+        }
+        int anchorX = in.readInt();
+        int anchorY = in.readInt();
+        return new Presence(peer, onBoard, x, y, shape < 0 ? null : types[shape], anchorX, anchorY, in.readInt());
+    }
+
+    public static void writePresences(DataOutput out, List<Presence> presences) throws IOException {
+        out.writeInt(presences.size());
+        for (Presence p : presences) {
+            writeString(out, p.getPeer());
+            writePresence(out, p);
+        }
+    }
+
+    public static ArrayList<Presence> readPresences(DataInput in) throws IOException {
+        int n = readCount(in, 26);
+        ArrayList<Presence> presences = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            presences.add(readPresence(in, readString(in)));
+        }
+        return presences;
+    }
+
+    public static void writeJoinRequests(DataOutput out, List<JoinRequest> requests) throws IOException {
+        out.writeInt(requests.size());
+        for (JoinRequest r : requests) {
+            out.writeLong(r.getId());
+            writeString(out, r.getUsername());
+        }
+    }
+
+    public static ArrayList<JoinRequest> readJoinRequests(DataInput in) throws IOException {
+        int n = readCount(in, 12);
+        ArrayList<JoinRequest> requests = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            requests.add(new JoinRequest(in.readLong(), readString(in)));
+        }
+        return requests;
+    }
+
+    /**
+     * Writes join information, or null if the client is waiting for the admin.
+     * @param out frame
+     * @param info join information, or null
+     * @throws IOException
+     */
+    public static void writeJoinInfo(DataOutput out, JoinInfo info) throws IOException {
+        out.writeBoolean(info != null);
+        if (info != null) {
+            out.writeInt(info.getId());
+            out.writeBoolean(info.isAdmin());
+            out.writeLong(info.getBoardVersion());
+            writeStrings(out, info.getPeerList());
+            writeStrings(out, info.getChatTail());
+            out.writeLong(info.getChatFirstIndex());
+        }
+    }
+
+    public static JoinInfo readJoinInfo(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int id = in.readInt();
+        boolean admin = in.readBoolean();
+        long boardVersion = in.readLong();
+        ArrayList<String> peerList = readStrings(in);
+        ArrayList<String> chatTail = readStrings(in);
+        return new JoinInfo(id, admin, boardVersion, peerList, chatTail, in.readLong());
+    }
+
+    /**
+     * Reads a list's length, checking the frame has room for that many items,
+     * so a bad count cannot make the reader allocate a huge list.
+     * @param in frame
+     * @param itemBytes fewest bytes one item takes
+     * @return number of items
+     * @throws IOException if the count cannot fit in what is left of the frame
+     */
+    private static int readCount(DataInput in, int itemBytes) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || (long) n * itemBytes > remaining(in)) {
+            throw new IOException("Bad count: " + n);
+        }
+        return n;
+    }
+
+    /**
+     * @param in frame, or other source
+     * @return most bytes left to read: what is left of a frame, else MAX_FRAME
+     */
+    static int remaining(DataInput in) {
+        return in instanceof FrameReader ? ((FrameReader) in).remaining() : MAX_FRAME;
+    }
+}
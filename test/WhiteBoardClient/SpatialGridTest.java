@@ -0,0 +1,79 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardClient;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks SpatialGrid's point and rectangle queries against a scan of every
+ * shape, including shapes spanning many cells and shapes too big for cells.
+ * Run with: java -cp out WhiteBoardClient.SpatialGridTest
+ * after compiling src and test into out. Exits with 1 on failure.
+ */
+public class SpatialGridTest {
+
+    public static void main(String[] args) {
+        SpatialGrid grid = new SpatialGrid();
+        List<String> shapes = new ArrayList<>();
+        List<Rectangle> bounds = new ArrayList<>();
+        add(grid, shapes, bounds, "small", new Rectangle(10, 10, 5, 5));
+        add(grid, shapes, bounds, "wide", new Rectangle(0, 100, 1000, 2));
+        add(grid, shapes, bounds, "huge", new Rectangle(-5000, -5000, 10000, 10000));
+        add(grid, shapes, bounds, "far", new Rectangle(3000, 3000, 10, 10));
+
+        check(grid.shapesAt(12, 12, shapes).equals(Arrays.asList("small", "huge")), "point on small");
+        check(grid.shapesAt(900, 101, shapes).equals(Arrays.asList("wide", "huge")), "point on wide");
+        check(grid.shapesAt(3005, 3005, shapes).equals(Arrays.asList("huge", "far")), "point on far");
+        check(grid.shapesAt(-6000, 0, shapes).isEmpty(), "point on nothing");
+        check(grid.shapesIn(new Rectangle(0, 0, 200, 200), shapes).equals(Arrays.asList("small", "wide", "huge")),
+                "rectangle over several shapes");
+
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            int size = i % 50 == 0 ? 3000 : 200;
+            add(grid, shapes, bounds, "s" + i, new Rectangle(random.nextInt(4000) - 500, random.nextInt(4000) - 500,
+                    random.nextInt(size), random.nextInt(size)));
+        }
+        for (int q = 0; q < 2000; q++) {
+            Rectangle area = new Rectangle(random.nextInt(4000) - 500, random.nextInt(4000) - 500,
+                    random.nextInt(400) + 1, random.nextInt(400) + 1);
+            check(grid.shapesIn(area, shapes).equals(scan(area, shapes, bounds)), "rectangle query " + area);
+            Rectangle point = new Rectangle(area.x, area.y, 1, 1);
+            check(grid.shapesAt(point.x, point.y, shapes).equals(scan(point, shapes, bounds)), "point query " + point);
+        }
+
+        grid.clear();
+        check(grid.shapesIn(new Rectangle(0, 0, 4000, 4000), new ArrayList<String>()).isEmpty(), "cleared grid");
+        System.out.println("SpatialGrid test passed: " + shapes.size() + " shapes");
+    }
+
+    private static void add(SpatialGrid grid, List<String> shapes, List<Rectangle> bounds, String name, Rectangle r) {
+        grid.add(r);
+        shapes.add(name);
+        bounds.add(r);
+    }
+
+    /**
+     * @return shapes whose bounding box intersects the area, found the slow way
+     */
+    private static List<String> scan(Rectangle area, List<String> shapes, List<Rectangle> bounds) {
+        List<String> found = new ArrayList<>();
+        for (int i = 0; i < shapes.size(); i++) {
+            if (bounds.get(i).intersects(area)) {
+                found.add(shapes.get(i));
+            }
+        }
+        return found;
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.err.println("SpatialGrid test failed: " + message);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Benjamin Yi - 1152795
+
+package WhiteBoardServer;
+
+import remote.BoardOp;
+import remote.IShape;
+import remote.Shape;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress test for BoardState: many threads draw and chat at once while
+ * others read snapshots. Checks that no operation is lost or reordered,
+ * that versions have no gaps, and that every snapshot is consistent.
+ * Run with: java -cp out WhiteBoardServer.BoardStateStressTest
+ * after compiling src and test into out. Exits with 1 on failure.
+ */
+public class BoardStateStressTest {
+    private static final int DRAWERS = 8;
+    private static final int SHAPES_PER_DRAWER = 500;
+    private static final int MESSAGES = 200;
+    private static final int READERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("board-stress").toFile();
+        ExecutorService logWriter = Executors.newSingleThreadExecutor();
+        ExecutorService snapshotter = Executors.newSingleThreadExecutor();
+        // Called with the sequencer held, so needs no lock of its own
+        List<BoardOp> broadcast = new ArrayList<>();
+        BoardState board = new BoardState(new MessageHistory(dir), new OpLog(dir, 1000, logWriter, snapshotter),
+                broadcast::add);
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean drawing = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int d = 0; d < DRAWERS; d++) {
+            int drawer = d;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = 0; i < SHAPES_PER_DRAWER; i++) {
+                    board.addShape(new Shape(drawer, i, 1, 1, Color.BLACK, IShape.ShapeType.LINE),
+                            ((long) drawer << 32) | i);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            await(start);
+            for (int i = 0; i < MESSAGES; i++) {
+                board.addMessage("m" + i);
+            }
+        }));
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(new Thread(() -> {
+                await(start);
+                long lastVersion = 0;
+                while (drawing.get()) {
+                    BoardState.Snapshot s = board.snapshot();
+                    if (s.version < lastVersion) {
+                        failure.compareAndSet(null, "Snapshot went back from version " + lastVersion + " to " + s.version);
+                    }
+                    lastVersion = s.version;
+                    // Every drawer's shapes must appear in the order it drew them
+                    String error = checkPerDrawerOrder(s.shapes);
+                    if (error != null) {
+                        failure.compareAndSet(null, "Snapshot at version " + s.version + ": " + error);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : readers) {
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        drawing.set(false);
+        for (Thread t : readers) {
+            t.join();
+        }
+
+        int total = DRAWERS * SHAPES_PER_DRAWER + MESSAGES;
+        check(failure.get() == null, failure.get());
+        check(broadcast.size() == total, "Broadcast " + broadcast.size() + " of " + total + " operations");
+        ArrayList<Shape> fromOps = new ArrayList<>();
+        for (int i = 0; i < broadcast.size(); i++) {
+            BoardOp op = broadcast.get(i);
+            check(op.getVersion() == i + 1, "Operation " + i + " has version " + op.getVersion());
+            if (op.getType() == BoardOp.Type.SHAPE) {
+                Shape s = op.getShape();
+                check(op.getOpId() == (((long) s.getX() << 32) | s.getY()), "Operation id does not match its shape");
+                fromOps.add(s);
+            }
+        }
+        BoardState.Snapshot last = board.snapshot();
+        check(last.version == total, "Final version " + last.version + ", expected " + total);
+        check(last.messageCount == MESSAGES, "Final message count " + last.messageCount);
+        check(last.shapes.size() == DRAWERS * SHAPES_PER_DRAWER, "Final board has " + last.shapes.size() + " shapes");
+        String error = checkPerDrawerOrder(last.shapes);
+        check(error == null, error);
+        for (int i = 0; i < fromOps.size(); i++) {
+            Shape a = fromOps.get(i);
+            Shape b = last.shapes.get(i);
+            check(a.getX() == b.getX() && a.getY() == b.getY(), "Board order differs from broadcast order at " + i);
+        }
+        for (int i = 0; i < DRAWERS; i++) {
+            int drawer = i;
+            long drawn = last.shapes.stream().filter(s -> s.getX() == drawer).count();
+            check(drawn == SHAPES_PER_DRAWER, "Drawer " + drawer + " has " + drawn + " shapes on the board");
+        }
+        ArrayList<String> messages = board.messagePage(MESSAGES, MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            check(messages.get(i).equals("m" + i), "Message " + i + " is " + messages.get(i));
+        }
+
+        board.close();
+        logWriter.shutdown();
+        snapshotter.shutdown();
+        delete(dir);
+        System.out.println("BoardState stress test passed: " + total + " operations from "
+                + (DRAWERS + 1) + " threads, " + READERS + " readers");
+    }
+
+    /**
+     * @param shapes board contents
+     * @return description of the first drawer whose shapes are out of order, or null
+     */
+    private static String checkPerDrawerOrder(List<Shape> shapes) {
+        int[] next = new int[DRAWERS];
+        for (Shape s : shapes) {
+            if (s.getY() != next[s.getX()]) {
+                return "drawer " + s.getX() + " shape " + s.getY() + " where " + next[s.getX()] + " was expected";
+            }
+            next[s.getX()]++;
+        }
+        return null;
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.err.println("BoardState stress test failed: " + message);
+            System.exit(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void delete(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                Files.delete(f.toPath());
+            }
+        }
+        Files.delete(dir.toPath());
+    }
+}